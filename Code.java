@@ -1,10 +1,13 @@
 import java.io.*;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * Code class handles the compiler output portion of the translator
  *
  * Writes generated C source code to a file with name provided by the environment variable Code.
- * Output includes standard prologue and epilogue
+ * Output includes standard prologue and epilogue.
+ * Each program's code is streamed to the file as it is added, so it never has to fit in memory.
  */
 public class Code {
 	/**
@@ -22,27 +25,93 @@ public class Code {
 		"}",
 	};
 
+	private Writer f;	// null if no C is being written
+	private final BitSet declared=new BitSet();	// slots whose variables have been declared
+
 	/**
-	 * Constructs the Code object that writes out the translated C code.
-	 * @param code body of generated C code from the parse tree
-	 * @param env the environment object containing variables
+	 * Constructs the Code object, which starts the C file, if there is to be one.
 	 */
-	public Code(String code, Environment env) {
+	public Code() {
 		String fn=System.getenv("Code");
 		if (fn==null)
 			return;
 		try {
-			BufferedWriter f=new BufferedWriter(new FileWriter(fn+".c"));
-			for (String s: prologue)
-				f.write(s+"\n");
-			f.write(env.toC());
-			f.write(code);
+			start(new BufferedWriter(new FileWriter(fn+".c")));
+		} catch (Exception e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Constructs a Code object that writes the C code to a given Writer.
+	 * @param f where to write
+	 */
+	public Code(Writer f) {
+		try {
+			start(f);
+		} catch (Exception e) {
+			fail(e);
+		}
+	}
+
+	private void start(Writer f) throws IOException {
+		this.f=f;
+		for (String s: prologue)
+			f.append(s).append('\n');
+	}
+
+	/**
+	 * Writes the C code for a program straight to the file, after declaring
+	 * the variables it reads or assigns that no earlier program declared.
+	 * Those folding removed are not declared, lest the C compiler warn that
+	 * they are unused. They are declared in order of name, since slots are
+	 * not given in a fixed order when programs are parsed in parallel.
+	 * @param prog the program
+	 * @param symbols the slots of the variables of the programs so far
+	 */
+	public void add(Node prog, Symbols symbols) {
+		if (f==null)
+			return;
+		try {
+			BitSet used=new BitSet();
+			prog.reads(used);
+			prog.writes(used);
+			used.andNot(declared);
+			if (!used.isEmpty()) {
+				String[] names=new String[used.cardinality()];
+				for (int slot=used.nextSetBit(0), i=0; slot>=0; slot=used.nextSetBit(slot+1))
+					names[i++]=symbols.name(slot);
+				Arrays.sort(names);
+				f.write("double ");
+				for (int i=0; i<names.length; i++)
+					f.append(i>0 ? ", " : "").append(names[i]).append(" = 0.0");
+				f.write(";\n");
+				declared.or(used);
+			}
+			prog.code(f);
+		} catch (Exception e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Ends and closes the C file.
+	 */
+	public void close() {
+		if (f==null)
+			return;
+		try {
 			for (String s: epilogue)
-				f.write(s+"\n");
+				f.append(s).append('\n');
 			f.close();
 		} catch (Exception e) {
-			System.err.println(e);
+			fail(e);
 		}
 	}
 
+	private void fail(Exception e) {
+		System.err.println(e);
+		f=null;
+	}
+
 }
@@ -0,0 +1,266 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Daemon serves translation requests from a long-running JVM, so that a
+ * job does not pay for JVM startup and warm-up each time.
+ *
+ * It listens on a Unix domain socket, running each connection on its own
+ * thread: a virtual thread where the JVM has them, else a pooled one. The
+ * requests of a connection run in turn on its thread, so a client that
+ * wants requests run at once opens a connection for each. Or it serves
+ * stdin and stdout, one request after another, on the main thread.
+ *
+ * A socket left at the path by a daemon that is gone is replaced; anything
+ * else there, a file or a daemon still listening, is left alone, and this
+ * daemon does not start.
+ *
+ * A connection carries any number of requests, each answered in turn.
+ * A request is a header line, then its programs, then input for rd:
+ *
+ *   MODE [BACKEND] N      MODE is eval, code or both, BACKEND is --eval
+ *                         (the default), --closure, --jvm or --vm, and N is
+ *                         the number of programs, at most MAX_PROGRAMS
+ *   LENGTH                then, N times, a program of LENGTH bytes
+ *   program
+ *   LENGTH                then LENGTH bytes of input, maybe 0
+ *   input
+ *
+ * A response is three chunks, each a LENGTH line then that many bytes:
+ * the output of the programs, their error messages, and the C code (empty
+ * unless MODE is code or both). Each request has its own Environment, and
+ * rd does not prompt.
+ *
+ * A request that is just the line "stats" is answered with a line of the
+ * ParseCache's hits, misses, trees and variables as its output (see
+ * ParseCache.summary()), or "no cache".
+ *
+ * A malformed request is answered with a "bad request" error, then the
+ * connection is closed, since where the next request starts is lost.
+ *
+ * Each request has its own Symbols too, unless the daemon has a ParseCache:
+ * then eval requests take their trees from it, shared by every connection,
+ * and so are resolved against its Symbols. Requests for C code are still
+ * parsed afresh, since the C declares every variable of its Symbols.
+ */
+public class Daemon {
+
+	/** most programs a request may have */
+	public static final int MAX_PROGRAMS=1<<16;
+
+	private static final Set<String> BACKENDS=Set.of("--eval", "--closure", "--jvm", "--vm");
+
+	/**
+	 * Serves requests until killed.
+	 * @param socket path of the socket to listen on, or - for stdin and stdout
+	 * @param cache where eval requests get their trees, or null to parse each
+	 * @throws IOException if the socket cannot be made, or something else
+	 *         is at its path
+	 */
+	public static void serve(String socket, ParseCache cache) throws IOException {
+		if (socket.equals("-")) {
+			serve(System.in,System.out,cache);
+			return;
+		}
+		Path path=Paths.get(socket);
+		removeStale(path);
+		ServerSocketChannel server=ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		server.bind(UnixDomainSocketAddress.of(path));
+		ExecutorService threads=executor();
+		for (;;) {
+			SocketChannel client=server.accept();
+			threads.execute(() -> {
+				try (client) {
+					serve(new BufferedInputStream(Channels.newInputStream(client)),Channels.newOutputStream(client),cache);
+				} catch (IOException e) {
+					System.err.println(e);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Removes a socket at a path that no daemon is listening on any more.
+	 * @param path the socket's path
+	 * @throws IOException if something else is there
+	 */
+	private static void removeStale(Path path) throws IOException {
+		BasicFileAttributes attributes;
+		try {
+			attributes=Files.readAttributes(path,BasicFileAttributes.class,LinkOption.NOFOLLOW_LINKS);
+		} catch (NoSuchFileException e) {
+			return;
+		}
+		if (!attributes.isOther() || !socket(path))
+			throw new FileAlreadyExistsException(path.toString(),null,"not a socket");
+		SocketChannel live;
+		try {
+			live=SocketChannel.open(UnixDomainSocketAddress.of(path));
+		} catch (ConnectException e) {
+			Files.delete(path);	// stale
+			return;
+		}
+		live.close();
+		throw new FileAlreadyExistsException(path.toString(),null,"a daemon is listening");
+	}
+
+	/** @return whether a path is a socket, or, where that cannot be told, not a file, directory or link */
+	private static boolean socket(Path path) throws IOException {
+		try {
+			int mode=(Integer) Files.getAttribute(path,"unix:mode",LinkOption.NOFOLLOW_LINKS);
+			return (mode&0170000)==0140000;	// S_IFSOCK
+		} catch (UnsupportedOperationException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * @return an executor that starts a virtual thread per task, where the
+	 *         JVM has them, else a pool of threads
+	 */
+	private static ExecutorService executor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException|RuntimeException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * Answers requests until the end of the input.
+	 * @param in where requests come from
+	 * @param out where responses go
+	 * @param cache where eval requests get their trees, or null
+	 * @throws IOException if reading or writing fails
+	 */
+	static void serve(InputStream in, OutputStream out, ParseCache cache) throws IOException {
+		for (String header; (header=line(in))!=null; ) {
+			byte[][] response;
+			boolean bad=false;
+			try {
+				response=request(header,in,cache);
+			} catch (IllegalArgumentException e) {
+				response=new byte[][] {new byte[0],("bad request: "+e.getMessage()+"\n").getBytes(StandardCharsets.UTF_8),new byte[0]};
+				bad=true;
+			}
+			out.write(chunks(response));
+			out.flush();
+			if (bad)
+				return;		// the framing is lost
+		}
+	}
+
+	/**
+	 * Reads the rest of a request and runs it.
+	 * @param header the request's first line
+	 * @param in the rest of the request
+	 * @param cache where eval requests get their trees, or null
+	 * @return output, errors and C code
+	 * @throws IOException if reading fails
+	 * @throws IllegalArgumentException if the request is malformed
+	 */
+	private static byte[][] request(String header, InputStream in, ParseCache cache) throws IOException {
+		String[] words=header.trim().split(" +");
+		String mode=words[0];
+		if (mode.equals("stats") && words.length==1) {
+			String summary=cache==null ? "no cache" : cache.summary();
+			return new byte[][] {(summary+"\n").getBytes(StandardCharsets.UTF_8),new byte[0],new byte[0]};
+		}
+		if (!mode.equals("eval") && !mode.equals("code") && !mode.equals("both") || words.length<2 || words.length>3)
+			throw new IllegalArgumentException(header);
+		String backend=words.length>2 ? words[1] : "--eval";
+		if (!BACKENDS.contains(backend))
+			throw new IllegalArgumentException(header);
+		int n=Integer.parseInt(words[words.length-1]);
+		if (n<0 || n>MAX_PROGRAMS)
+			throw new IllegalArgumentException(header);
+		String[] programs=new String[n];
+		for (int i=0; i<programs.length; i++)
+			programs[i]=new String(chunk(in),StandardCharsets.UTF_8);
+		byte[] input=chunk(in);
+
+		boolean eval=!mode.equals("code");
+		boolean translate=!mode.equals("eval");
+		ByteArrayOutputStream printed=new ByteArrayOutputStream();
+		StringBuilder errors=new StringBuilder();
+		StringWriter c=new StringWriter();
+		Environment env=new Environment(new Output(printed),new Input(new ByteArrayInputStream(input),false));
+		Parser parser=new Parser();
+		if (translate)
+			cache=null;
+		Code code=new Code(c);
+		for (String program: programs)
+			try {
+				Node node=cache!=null ? cache.parse(program) : parser.parse(program);
+				if (eval)
+					Main.run(node,env,backend);
+				if (translate)
+					code.add(node,parser.symbols());
+			} catch (Exception e) {
+				errors.append(e).append('\n');
+			} finally {
+				env.out().flush();
+			}
+		code.close();
+		return new byte[][] {
+			printed.toByteArray(),
+			errors.toString().getBytes(StandardCharsets.UTF_8),
+			translate ? c.toString().getBytes(StandardCharsets.UTF_8) : new byte[0],
+		};
+	}
+
+	/** @return the chunks, each after a line with its length */
+	private static byte[] chunks(byte[][] chunks) throws IOException {
+		ByteArrayOutputStream b=new ByteArrayOutputStream();
+		for (byte[] chunk: chunks) {
+			b.write((chunk.length+"\n").getBytes(StandardCharsets.US_ASCII));
+			b.write(chunk);
+		}
+		return b.toByteArray();
+	}
+
+	/** @return a chunk: a line with its length, then that many bytes */
+	private static byte[] chunk(InputStream in) throws IOException {
+		String line=line(in);
+		if (line==null)
+			throw new EOFException();
+		int length=Integer.parseInt(line.trim());
+		byte[] b=in.readNBytes(length);
+		if (b.length<length)
+			throw new EOFException();
+		return b;
+	}
+
+	/** @return the next line, without its newline, or null at the end */
+	private static String line(InputStream in) throws IOException {
+		StringBuilder sb=new StringBuilder();
+		int c;
+		while ((c=in.read())>=0 && c!='\n')
+			sb.append((char) c);
+		return c<0 && sb.length()==0 ? null : sb.toString();
+	}
+
+}
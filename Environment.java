@@ -1,71 +1,133 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Environment class represents the runtime variable store for the interpreter and compiler.
- * It maintains a mapping from variable names to their values and provides methods for inserting, retrieving and generating code
- * declarations.
- *
- * still needs implementation according to hint below
+ * Variables are resolved to slots (see Symbols) by the parser, so values live in a double array indexed by slot.
+ * Names are not kept: the nodes give them for error messages (see get()).
  */
-// Hint!
-// Use the Java API to implement your Environment.
-// Browse:
-//   https://docs.oracle.com/javase/tutorial/tutorialLearningPaths.html
-// Read about Collections.
-// Focus on the Map interface and HashMap implementation.
-// Also:
-//   https://www.tutorialspoint.com/java/java_map_interface.htm
-//   http://www.javatpoint.com/java-map
-// and elsewhere.
-
 public class Environment {
-	private Map<String, Double> map;
+	private double[] frame;
+	private boolean[] defined;
+	private int size;	// one more than the highest slot defined
+	private double[] hoisted = new double[0];	// values of expressions hoisted out of loops (see Hoist)
+	private boolean[] held = new boolean[0];	// whether each was computed
+	private Output out;
+	private Input in;
 
+	/**
+	 * Constructs an Environment that prints to System.out, and reads from
+	 * System.in with prompts.
+	 */
     public Environment() {
-        map = new HashMap<>();
+        this(new Output(System.out), new Input(System.in, true));
     }
 
+	/**
+	 * @param out where programs print
+	 * @param in where programs read
+	 */
+    public Environment(Output out, Input in) {
+        frame = new double[16];
+        defined = new boolean[16];
+        this.out = out;
+        this.in = in;
+    }
+
+	/**
+	 * @return where programs print
+	 */
+	public Output out() {
+		return out;
+	}
+
+	/**
+	 * @return where programs read
+	 */
+	public Input in() {
+		return in;
+	}
+
 	/**
 	 * inserts or updates a variable in the environment.
+	 * @param slot variable slot
 	 * @param var variable name
 	 * @param val value to assign
 	 * @return the value assigned
 	 */
-	public double put(String var, double val) {
-		map.put(var, val);
+	public double put(int slot, String var, double val) {
+		if (slot >= size) {
+			if (slot >= frame.length) {
+				int n = Math.max(2 * frame.length, slot + 1);
+				frame = Arrays.copyOf(frame, n);
+				defined = Arrays.copyOf(defined, n);
+			}
+			size = slot + 1;
+		}
+		frame[slot] = val;
+		defined[slot] = true;
         return val;
 	}
 
 	/**
 	 * Gets a variables current value
 	 * @param pos character position
+	 * @param slot variable slot
 	 * @param var variable name
 	 * @return stored value
 	 * @throws EvalException if the variable has no definition
 	 */
-	public double get(int pos, String var) throws EvalException {
-		if (!map.containsKey(var)) {
+	public double get(int pos, int slot, String var) throws EvalException {
+		if (slot >= size || !defined[slot]) {
             throw new EvalException(pos, "undefined variable: " + var);
         }
-        return map.get(var);
+        return frame[slot];
 	}
 
 	/**
-	 * Generates a string containing C declarations for all variables defined
-	 * @return C code string with all variables
+	 * @param slot variable slot
+	 * @return whether the variable has a definition
 	 */
-    public String toC() {
-        if (map.isEmpty()) return "";
+	public boolean defined(int slot) {
+		return slot < size && defined[slot];
+	}
 
-        StringBuilder sb = new StringBuilder("double ");
-        String sep = "";
-        for (String v : map.keySet()) {
-            sb.append(sep).append(v).append(" = 0.0");
-            sep = ", ";
-        }
-        sb.append(";\n");
+	/**
+	 * @param slot variable slot
+	 * @return stored value, or 0 if the variable has no definition
+	 */
+	public double value(int slot) {
+		return slot < size ? frame[slot] : 0;
+	}
+
+	/**
+	 * Keeps the value of an expression hoisted out of a loop (see Hoist).
+	 * @param temp its number
+	 * @param val its value
+	 * @param held false if it could not be computed, so val is not its value
+	 */
+	void hoist(int temp, double val, boolean held) {
+		if (temp >= hoisted.length) {
+			hoisted = Arrays.copyOf(hoisted, Math.max(2 * hoisted.length, temp + 1));
+			this.held = Arrays.copyOf(this.held, hoisted.length);
+		}
+		hoisted[temp] = val;
+		this.held[temp] = held;
+	}
+
+	/**
+	 * @param temp number of a hoisted expression
+	 * @return whether its value was computed
+	 */
+	boolean held(int temp) {
+		return held[temp];
+	}
+
+	/**
+	 * @param temp number of a hoisted expression whose value was computed
+	 * @return its value
+	 */
+	double hoisted(int temp) {
+		return hoisted[temp];
+	}
 
-        return sb.toString();
-    }
 }
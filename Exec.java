@@ -0,0 +1,19 @@
+/**
+ * A node compiled to a closure, for the closure-compiled execution mode.
+ *
+ * Node.compile() makes one from the tree quicken() specializes, once, with
+ * all decisions about node kinds and operators already made. Running it does
+ * the same thing as Node.eval(), without re-examining the parse tree.
+ */
+@FunctionalInterface
+public interface Exec {
+
+	/**
+	 * Runs the compiled node.
+	 * @param env current run time environment
+	 * @return numeric result, as Node.eval() would return
+	 * @throws EvalException if the node cannot be evaluated
+	 */
+	double run(Environment env) throws EvalException;
+
+}
@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hoist moves loop-invariant expressions out of while loops, for eval()
+ * and for the C code. An expression is invariant in a loop if it reads
+ * only variables the loop never assigns (see Node.writes()), so it has
+ * the same value every time round. NodeWhile.quicken() and code() find
+ * the largest such expressions in the loop's condition and body, compute
+ * each once, into a temporary, as the loop starts, and read the temporary
+ * where the expression was. The tree is not changed, so the other back
+ * ends, and .tac files, see the program as parsed.
+ *
+ * Since operators apply from left to right, only an invariant prefix of a
+ * NodeExpr or NodeTerm is hoisted, such as a*b in a*b*i, not b*i in a*b*i,
+ * so each temporary has exactly the value the expression would have had.
+ * An expression with no operator is not worth hoisting.
+ *
+ * In C the temporaries are variables _t0, _t1, ... declared in a block
+ * around the loop; no variable of a program can be named so. For eval()
+ * they are kept in the Environment. An expression that cannot be computed
+ * as the loop starts, as it reads a variable not yet defined, is not held;
+ * it is evaluated where it is used instead, so it fails there, as it
+ * would have without hoisting, if it is used at all.
+ *
+ * Loops inside a loop number their temporaries after those of the loops
+ * they are in, and hoist what those left behind.
+ */
+class Hoist {
+
+	private static final ThreadLocal<Hoist> active=new ThreadLocal<>();
+
+	private final Hoist outer;	// the loop this one is in, or null
+	private final Map<Node, Temp> temps;	// of this loop and those it is in, by expression
+	private final BitSet writes;	// slots of the variables this loop assigns
+	private final List<Temp> found=new ArrayList<>();	// this loop's
+	private int next;	// number of the next temporary
+
+	/**
+	 * An expression hoisted: the first term, or factor, of a NodeExpr, or
+	 * NodeTerm, and some of the operators after it.
+	 */
+	static class Temp {
+		private final int n;	// its number
+		private final Node expr;
+		private final int ops;
+		private Node run;	// expr quickened, once it is needed
+
+		private Temp(int n, Node expr, int ops) {
+			this.n=n;
+			this.expr=expr;
+			this.ops=ops;
+		}
+
+		/** @return how many of its operators are hoisted */
+		int ops() {
+			return ops;
+		}
+
+		/** @return the name of its variable in C */
+		String name() {
+			return "_t"+n;
+		}
+
+		/** @return the node that eval() runs in place of the expression (see Node.quicken()) */
+		Node use() {
+			return new Use(n,run());
+		}
+
+		private Node run() {
+			if (run==null)
+				run=expr.quicken(ops);
+			return run;
+		}
+	}
+
+	private Hoist(Hoist outer, BitSet writes) {
+		this.outer=outer;
+		this.temps=outer==null ? new IdentityHashMap<>() : outer.temps;
+		this.writes=writes;
+		this.next=outer==null ? 0 : outer.next;
+	}
+
+	/**
+	 * Finds the invariant expressions of a loop, which is being quickened
+	 * or written as C, until exit().
+	 * @param loop the loop
+	 * @return the loop's Hoist
+	 */
+	static Hoist enter(NodeWhile loop) {
+		Hoist h=new Hoist(active.get(),loop.writes());
+		active.set(h);
+		loop.hoist(h);
+		return h;
+	}
+
+	/**
+	 * Ends the loop, once it has been quickened or written.
+	 */
+	void exit() {
+		if (outer==null)
+			active.remove();
+		else
+			active.set(outer);
+	}
+
+	/**
+	 * @param expr a NodeExpr or NodeTerm
+	 * @return the expression hoisted from the start of expr, by the loops
+	 *         being quickened or written, or null if none is
+	 */
+	static Temp temp(Node expr) {
+		Hoist h=active.get();
+		return h==null ? null : h.temps.get(expr);
+	}
+
+	/**
+	 * @param slot slot of a variable
+	 * @return whether the loop assigns it
+	 */
+	boolean writes(int slot) {
+		return writes.get(slot);
+	}
+
+	/**
+	 * Hoists an expression's largest invariant parts, or all of it.
+	 * @param e the expression
+	 */
+	void expr(NodeExpr e) {
+		if (e.invariant(this))
+			e.hoistInvariant(this);
+	}
+
+	/**
+	 * Hoists the start of an expression, unless a loop this is in has.
+	 * @param expr a NodeExpr or NodeTerm
+	 * @param ops how many of its operators
+	 */
+	void add(Node expr, int ops) {
+		if (temps.containsKey(expr))
+			return;
+		Temp t=new Temp(next++,expr,ops);
+		temps.put(expr,t);
+		found.add(t);
+	}
+
+	/**
+	 * @param loop the node that eval() runs for the loop
+	 * @return a node that computes the loop's temporaries, then runs it
+	 */
+	Node quicken(Node loop) {
+		if (found.isEmpty())
+			return loop;
+		int[] n=new int[found.size()];
+		Node[] run=new Node[n.length];
+		for (int i=0; i<n.length; i++) {
+			n[i]=found.get(i).n;
+			run[i]=found.get(i).run();
+		}
+		return new Init(n,run,loop);
+	}
+
+	/**
+	 * Writes the C code that opens a block around the loop, declaring its
+	 * temporaries, if it has any.
+	 * @param out where to write
+	 * @throws IOException if writing fails
+	 */
+	void declare(Appendable out) throws IOException {
+		if (found.isEmpty())
+			return;
+		out.append("{\n");
+		for (Temp t: found) {
+			out.append("double ").append(t.name()).append("=");
+			t.expr.code(out,t.ops);
+			out.append(";\n");
+		}
+	}
+
+	/**
+	 * Writes the C code that closes the block declare() opened, if it did.
+	 * @param out where to write
+	 * @throws IOException if writing fails
+	 */
+	void end(Appendable out) throws IOException {
+		if (!found.isEmpty())
+			out.append("}\n");
+	}
+
+	private static class Init extends Node {
+		private final int[] n;
+		private final Node[] run;
+		private final Node loop;
+		Init(int[] n, Node[] run, Node loop) {
+			this.n=n;
+			this.run=run;
+			this.loop=loop;
+		}
+		public double eval(Environment env) throws EvalException {
+			for (int i=0; i<n.length; i++)
+				try {
+					env.hoist(n[i],run[i].eval(env),true);
+				} catch (EvalException e) {
+					env.hoist(n[i],0,false);	// fail where it is used, if it is
+				}
+			return loop.eval(env);
+		}
+	}
+
+	private static class Use extends Node {
+		private final int n;
+		private final Node run;
+		Use(int n, Node run) {
+			this.n=n;
+			this.run=run;
+		}
+		public double eval(Environment env) throws EvalException {
+			return env.held(n) ? env.hoisted(n) : run.eval(env);
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * Input is where rd statements read values: one source for a whole run,
+ * so that nothing read ahead is lost between reads.
+ *
+ * Values are whitespace-separated numbers, parsed straight from a byte
+ * buffer. That is filled from a stream, or is a memory-mapped window of a
+ * file, which is mapped a window at a time so a file can be any size.
+ * Close it when done, to close the file.
+ */
+public class Input implements Closeable {
+
+	private static final int WINDOW=1<<28;	// bytes of a file mapped at once
+
+	// powers of ten that are exact as doubles
+	private static final double[] POW10=new double[23];
+	static {
+		POW10[0]=1;
+		for (int i=1; i<POW10.length; i++)
+			POW10[i]=POW10[i-1]*10;
+	}
+
+	private InputStream in;		// null if reading a file
+	private FileChannel file;	// null if reading a stream
+	private long mapped;		// bytes of the file mapped so far
+	private ByteBuffer buf;
+	private boolean prompt;
+	private byte[] token=new byte[32];
+
+	/**
+	 * Constructs an Input that reads a stream.
+	 * @param in the stream
+	 * @param prompt whether rd prompts for each value
+	 */
+	public Input(InputStream in, boolean prompt) {
+		this.in=in;
+		this.prompt=prompt;
+		this.buf=ByteBuffer.allocate(0);	// until something is read
+	}
+
+	/**
+	 * Constructs an Input that maps a file into memory.
+	 * @param path the file
+	 * @param prompt whether rd prompts for each value
+	 * @throws IOException if the file cannot be opened
+	 */
+	public Input(Path path, boolean prompt) throws IOException {
+		this.file=FileChannel.open(path);
+		this.prompt=prompt;
+		this.buf=ByteBuffer.allocate(0);
+	}
+
+	/**
+	 * @return whether rd prompts for each value
+	 */
+	public boolean prompt() {
+		return prompt;
+	}
+
+	/**
+	 * Reads the next value.
+	 * @return the value
+	 * @throws NoSuchElementException if there are no more values
+	 * @throws InputMismatchException if the next value is not a number
+	 */
+	public double readDouble() {
+		int c=read();
+		while (c>=0 && c<=' ')
+			c=read();
+		if (c<0)
+			throw new NoSuchElementException();
+		int n=0;
+		for (; c>' '; c=read()) {
+			if (n==token.length)
+				token=Arrays.copyOf(token,2*n);
+			token[n++]=(byte) c;
+		}
+		return parse(token,n);
+	}
+
+	/**
+	 * Parses a number. Plain decimals with few enough digits are computed
+	 * directly, with one correctly rounded division, so they give what
+	 * Double.parseDouble() would. Anything else is left to it.
+	 */
+	private static double parse(byte[] t, int n) {
+		int i=0;
+		boolean neg=t[0]=='-';
+		if (neg || t[0]=='+')
+			i++;
+		long m=0;
+		int digits=0, frac=-1;
+		for (; i<n; i++) {
+			int c=t[i];
+			if (c>='0' && c<='9') {
+				if (++digits>18)
+					return slow(t,n);
+				m=m*10+c-'0';
+				if (frac>=0)
+					frac++;
+			} else if (c=='.' && frac<0)
+				frac=0;
+			else
+				return slow(t,n);
+		}
+		if (digits==0 || m>1L<<53 || frac>=POW10.length)
+			return slow(t,n);
+		double d=frac>0 ? m/POW10[frac] : m;
+		return neg ? -d : d;
+	}
+
+	private static double slow(byte[] t, int n) {
+		String s=new String(t,0,n,StandardCharsets.ISO_8859_1);
+		try {
+			return Double.parseDouble(s);
+		} catch (NumberFormatException e) {
+			throw new InputMismatchException(s);
+		}
+	}
+
+	/**
+	 * Closes the file, if reading one. A stream is left open, for whoever
+	 * opened it to close.
+	 */
+	@Override
+	public void close() {
+		if (file==null)
+			return;
+		try {
+			file.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** @return the next byte, or -1 at the end */
+	private int read() {
+		if (!buf.hasRemaining() && !fill())
+			return -1;
+		return buf.get()&0xff;
+	}
+
+	/** @return whether there is more to read */
+	private boolean fill() {
+		try {
+			if (file!=null) {
+				long size=file.size();
+				if (mapped>=size)
+					return false;
+				long n=Math.min(WINDOW,size-mapped);
+				buf=file.map(FileChannel.MapMode.READ_ONLY,mapped,n);
+				mapped+=n;
+				return true;
+			}
+			if (buf.capacity()==0)
+				buf=ByteBuffer.allocate(1<<16);
+			int n=in.read(buf.array());
+			if (n<0)
+				return false;
+			buf.clear();
+			buf.limit(n);
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
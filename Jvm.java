@@ -0,0 +1,565 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Jvm compiles a parse tree to JVM bytecode and runs it in-process.
+ *
+ * The program becomes the static method run(Environment) of a hidden class,
+ * which calls a static method for each part of it in turn: each while loop
+ * at the top of the program, and the statements between them, up to about
+ * METHOD_BYTES of code a method (see method()). HotSpot does not compile a
+ * method of more than 8000 bytes of bytecode, so a hot loop in one of a long
+ * program would otherwise stay interpreted.
+ *
+ * In each method, each variable it uses lives in a local double, next to an
+ * int local that says whether it is defined yet. Variables are loaded from
+ * the environment on entry and stored back on exit, including when an error
+ * is thrown, so the methods, and programs, share an environment as they do
+ * under eval(). The exception handler stores them back by code of its own,
+ * which the method's normal path never reaches, since HotSpot will not
+ * compile a method whose handler it does.
+ *
+ * Nodes emit their own bytecode through jvm() methods, much as they emit C
+ * through code(). The class file is written by hand, at a version old enough
+ * (Java 5) not to need stack map frames.
+ *
+ * A program that uses a node without a jvm() method, or that has a loop too
+ * large for one JVM method, is run by eval() instead.
+ */
+public class Jvm {
+
+	// opcodes used
+	private static final int ICONST_1=0x04, BIPUSH=0x10, SIPUSH=0x11;
+	private static final int LDC_W=0x13, LDC2_W=0x14, ILOAD=0x15, DLOAD=0x18, ALOAD=0x19;
+	private static final int ISTORE=0x36, DSTORE=0x39, ASTORE=0x3a, POP2=0x58;
+	private static final int DADD=0x63, DSUB=0x67, DMUL=0x6b, DDIV=0x6f, DNEG=0x77;
+	private static final int DCMPL=0x97, DCMPG=0x98;
+	private static final int IFEQ=0x99, IFNE=0x9a, IFLT=0x9b, IFGE=0x9c, IFGT=0x9d, IFLE=0x9e;
+	private static final int GOTO=0xa7, RETURN=0xb1, INVOKEVIRTUAL=0xb6, INVOKESTATIC=0xb8;
+	private static final int ATHROW=0xbf, WIDE=0xc4, IFNULL=0xc6;
+
+	/** a position in the code, possibly not yet known */
+	public static class Label {
+		private int pc=-1;
+		private List<Integer> uses=new ArrayList<>();	// branches to here, before it was placed
+	}
+
+	/** a method of the program, finished */
+	private static class Method {
+		byte[] code;
+		int maxStack, locals;
+		int start, end, handler;	// range of the statements, and its exception handler
+	}
+
+	/** a variable of the program, kept in locals */
+	private static class Var {
+		int slot;
+		String name;
+		int value;	// local holding the value (two words)
+		int flag;	// local that is nonzero once the variable is defined
+	}
+
+	private static final int ENV=0;		// local holding the Environment
+	private static final int THROWN=1;	// local holding the error being thrown, if any
+
+	private static final int METHOD_BYTES=6000;	// code a method of statements may grow to, before another is started
+	private static final int VAR_BYTES=70;	// most code a variable adds to a method, loading and storing it
+
+	private ByteArrayOutputStream pool=new ByteArrayOutputStream();
+	private Map<String, Integer> constants=new HashMap<>();
+	private int poolSize=1;
+
+	private byte[] code=new byte[256];
+	private int pc;
+	private int stack, maxStack;
+	private int locals=2;
+	private Map<Integer, Var> vars=new HashMap<>();	// of the method being emitted
+	private List<Var> order=new ArrayList<>();
+	private List<Method> methods=new ArrayList<>();	// finished
+
+	/**
+	 * Compiles a program to bytecode and runs it. If it cannot be compiled,
+	 * it is evaluated instead.
+	 * @param prog the program
+	 * @param env current run time environment
+	 * @throws EvalException if the program fails
+	 */
+	public static void run(Node prog, Environment env) throws EvalException {
+		MethodHandle program;
+		try {
+			Jvm j=new Jvm();
+			prog.jvm(j);
+			program=j.define();
+		} catch (UnsupportedOperationException e) {
+			prog.eval(env);
+			return;
+		}
+		try {
+			program.invokeExact(env);
+		} catch (EvalException|RuntimeException|Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Ends the method being emitted, if it has any code, so that what
+	 * follows goes in a new one.
+	 */
+	public void method() {
+		if (pc==0)
+			return;
+		methods.add(finish());
+		code=new byte[256];
+		pc=0;
+		stack=maxStack=0;
+		locals=2;
+		vars=new HashMap<>();
+		order=new ArrayList<>();
+	}
+
+	/**
+	 * @return whether the method being emitted is as large as a method of
+	 *         statements should be, with the code to load and store its variables
+	 */
+	public boolean full() {
+		return pc+order.size()*VAR_BYTES>METHOD_BYTES;
+	}
+
+	/**
+	 * Defines the compiled program as a hidden class.
+	 * @return handle on its run(Environment) method
+	 * @throws UnsupportedOperationException if the JVM will not load the
+	 *         class, say for a limit of its own, so it is run by eval()
+	 */
+	private MethodHandle define() {
+		try {
+			MethodHandles.Lookup lookup=MethodHandles.lookup().defineHiddenClass(classFile(),true);
+			return lookup.findStatic(lookup.lookupClass(),"run",
+				MethodType.methodType(void.class,Environment.class));
+		} catch (LinkageError e) {
+			throw new UnsupportedOperationException("class not loaded",e);
+		} catch (IOException|ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// constant pool
+
+	/**
+	 * Adds a constant pool entry, unless an equal one is already there.
+	 * @param key identifies the entry
+	 * @param words pool slots it takes
+	 * @param bytes the entry
+	 * @return index of the entry
+	 */
+	private int constant(String key, int words, byte[] bytes) {
+		Integer index=constants.get(key);
+		if (index==null) {
+			index=poolSize;
+			poolSize+=words;
+			pool.write(bytes,0,bytes.length);
+			constants.put(key,index);
+		}
+		return index;
+	}
+
+	/**
+	 * @param tag constant pool tag
+	 * @param u2s two-byte fields
+	 * @return entry of the tag and fields
+	 */
+	private static byte[] entry(int tag, int... u2s) {
+		byte[] b=new byte[1+2*u2s.length];
+		b[0]=(byte) tag;
+		for (int i=0; i<u2s.length; i++) {
+			b[1+2*i]=(byte) (u2s[i]>>8);
+			b[2+2*i]=(byte) u2s[i];
+		}
+		return b;
+	}
+
+	private int utf8(String s) {
+		ByteArrayOutputStream b=new ByteArrayOutputStream();
+		try {
+			DataOutputStream out=new DataOutputStream(b);
+			out.writeByte(1);
+			out.writeUTF(s);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return constant("U"+s,1,b.toByteArray());
+	}
+
+	private int classRef(String name) {
+		return constant("C"+name,1,entry(7,utf8(name)));
+	}
+
+	private int stringRef(String s) {
+		return constant("S"+s,1,entry(8,utf8(s)));
+	}
+
+	private int methodRef(String owner, String name, String type) {
+		int nameAndType=constant("N"+name+type,1,entry(12,utf8(name),utf8(type)));
+		return constant("M"+owner+"."+name+type,1,entry(10,classRef(owner),nameAndType));
+	}
+
+	private int doubleRef(double d) {
+		long bits=Double.doubleToRawLongBits(d);
+		return constant("D"+bits,2,
+			entry(6,(int) (bits>>>48),(int) (bits>>>32),(int) (bits>>>16),(int) bits));
+	}
+
+	// code
+
+	/**
+	 * Emits an instruction.
+	 * @param delta change in stack words
+	 * @param bytes opcode and operands
+	 */
+	private void op(int delta, int... bytes) {
+		if (pc+bytes.length>code.length)
+			code=Arrays.copyOf(code,2*code.length+bytes.length);
+		for (int b: bytes)
+			code[pc++]=(byte) b;
+		stack+=delta;
+		maxStack=Math.max(maxStack,stack);
+	}
+
+	private void op2(int delta, int opcode, int u2) {
+		op(delta,opcode,u2>>8&0xff,u2&0xff);
+	}
+
+	/** emits a load or store of a local, widened if needed */
+	private void local(int delta, int opcode, int local) {
+		if (local<256)
+			op(delta,opcode,local);
+		else
+			op(delta,WIDE,opcode,local>>8&0xff,local&0xff);
+	}
+
+	private void intConstant(int i) {
+		if (i>=-128 && i<128)
+			op(1,BIPUSH,i&0xff);
+		else if (i>=-32768 && i<32768)
+			op2(1,SIPUSH,i);
+		else
+			throw new UnsupportedOperationException("constant too large: "+i);
+	}
+
+	private void invoke(int opcode, String owner, String name, String type, int delta) {
+		op2(delta,opcode,methodRef(owner,name,type));
+	}
+
+	/**
+	 * Pushes a double constant.
+	 * @param d the constant
+	 */
+	public void constant(double d) {
+		op2(2,LDC2_W,doubleRef(d));
+	}
+
+	/**
+	 * Applies an arithmetic operator to the two doubles on top of the stack.
+	 * @param operator +, -, * or /
+	 */
+	public void arith(String operator) {
+		switch (operator) {
+		case "+": op(-2,DADD); break;
+		case "-": op(-2,DSUB); break;
+		case "*": op(-2,DMUL); break;
+		case "/": op(-2,DDIV); break;
+		default: throw new UnsupportedOperationException("operator "+operator);
+		}
+	}
+
+	/** Negates the double on top of the stack. */
+	public void neg() {
+		op(0,DNEG);
+	}
+
+	/** Discards the double on top of the stack. */
+	public void pop() {
+		op(-2,POP2);
+	}
+
+	/** Prints the double on top of the stack, as wr does, leaving it there. */
+	public void print() {
+		local(1,ALOAD,ENV);
+		invoke(INVOKESTATIC,"NodeWr","print","(DLEnvironment;)D",-1);
+	}
+
+	/**
+	 * Reads a value, as rd does, and pushes it.
+	 * @param id name of the variable being read
+	 */
+	public void read(String id) {
+		local(1,ALOAD,ENV);
+		op2(1,LDC_W,stringRef(id));
+		invoke(INVOKESTATIC,"NodeRd","read","(LEnvironment;Ljava/lang/String;)D",0);
+	}
+
+	/** @return a label, to be placed later */
+	public Label label() {
+		return new Label();
+	}
+
+	/**
+	 * Places a label at the current position.
+	 * @param l the label
+	 */
+	public void place(Label l) {
+		l.pc=pc;
+		for (int use: l.uses)
+			patch(use,l.pc);
+	}
+
+	private void patch(int at, int target) {
+		int off=target-at;
+		if (off<Short.MIN_VALUE || off>Short.MAX_VALUE)
+			throw new UnsupportedOperationException("branch too long");
+		code[at+1]=(byte) (off>>8);
+		code[at+2]=(byte) off;
+	}
+
+	private void branch(int opcode, int delta, Label l) {
+		int at=pc;
+		op(delta,opcode,0,0);
+		if (l.pc>=0)
+			patch(at,l.pc);
+		else
+			l.uses.add(at);
+	}
+
+	/**
+	 * Jumps to a label.
+	 * @param l the label
+	 */
+	public void jump(Label l) {
+		branch(GOTO,0,l);
+	}
+
+	/**
+	 * Compares the two doubles on top of the stack, and jumps to a label
+	 * if the relation does not hold. Comparisons with NaN do not hold,
+	 * except for &lt;&gt;, as in Java.
+	 * @param relop relational operator
+	 * @param l the label
+	 */
+	public void jumpUnless(String relop, Label l) {
+		switch (relop) {
+		case "<":  op(-3,DCMPG); branch(IFGE,-1,l); break;
+		case "<=": op(-3,DCMPG); branch(IFGT,-1,l); break;
+		case ">":  op(-3,DCMPL); branch(IFLE,-1,l); break;
+		case ">=": op(-3,DCMPL); branch(IFLT,-1,l); break;
+		case "==": op(-3,DCMPL); branch(IFNE,-1,l); break;
+		case "<>": op(-3,DCMPL); branch(IFEQ,-1,l); break;
+		default: throw new UnsupportedOperationException("relop "+relop);
+		}
+	}
+
+	private Var var(int slot, String name) {
+		Var v=vars.get(slot);
+		if (v==null) {
+			v=new Var();
+			v.slot=slot;
+			v.name=name;
+			v.value=locals;
+			v.flag=locals+2;
+			locals+=3;
+			if (locals>65535)
+				throw new UnsupportedOperationException("too many variables");
+			vars.put(slot,v);
+			order.add(v);
+		}
+		return v;
+	}
+
+	/**
+	 * Pushes the value of a variable, or throws the same error as eval()
+	 * if it is undefined.
+	 * @param pos position of the reference, for the error
+	 * @param slot variable slot
+	 * @param name variable name
+	 */
+	public void load(int pos, int slot, String name) {
+		Var v=var(slot,name);
+		Label ok=label();
+		local(1,ILOAD,v.flag);
+		branch(IFNE,-1,ok);
+		op2(1,LDC_W,stringRef(Integer.toString(pos)));
+		op2(1,LDC_W,stringRef(name));
+		invoke(INVOKESTATIC,"Jvm","undefined","(Ljava/lang/String;Ljava/lang/String;)LEvalException;",-1);
+		op(-1,ATHROW);
+		place(ok);
+		local(2,DLOAD,v.value);
+	}
+
+	/**
+	 * Pops a value into a variable, which is then defined.
+	 * @param slot variable slot
+	 * @param name variable name
+	 */
+	public void store(int slot, String name) {
+		Var v=var(slot,name);
+		local(-2,DSTORE,v.value);
+		op(1,ICONST_1);
+		local(-1,ISTORE,v.flag);
+	}
+
+	/**
+	 * Makes the error for an undefined variable; called by compiled code.
+	 * @param pos position of the reference
+	 * @param var variable name
+	 * @return the error
+	 */
+	public static EvalException undefined(String pos, String var) {
+		return new EvalException(Integer.parseInt(pos),"undefined variable: "+var);
+	}
+
+	// class file
+
+	/**
+	 * Finishes the method being emitted, wrapping its code in loads and
+	 * stores of its variables.
+	 * @return the method
+	 */
+	private Method finish() {
+		byte[] body=Arrays.copyOf(code,pc);
+		pc=0;
+		// prologue: load the variables from the environment
+		for (Var v: order) {
+			local(1,ALOAD,ENV);
+			intConstant(v.slot);
+			invoke(INVOKEVIRTUAL,"Environment","defined","(I)Z",-1);
+			local(-1,ISTORE,v.flag);
+			local(1,ALOAD,ENV);
+			intConstant(v.slot);
+			invoke(INVOKEVIRTUAL,"Environment","value","(I)D",0);
+			local(-2,DSTORE,v.value);
+		}
+		Method m=new Method();
+		m.start=pc;
+		for (byte b: body)
+			op(0,b&0xff);
+		m.end=pc;
+		// epilogue: store the variables back, then return
+		storeBack();
+		op(0,RETURN);
+		// handler, for the error on the stack: store them back, then rethrow
+		m.handler=pc;
+		stack=1;
+		local(-1,ASTORE,THROWN);
+		storeBack();
+		local(1,ALOAD,THROWN);
+		op(-1,ATHROW);
+		if (pc>65535)
+			throw new UnsupportedOperationException("method too large");
+		m.code=Arrays.copyOf(code,pc);
+		m.maxStack=Math.max(maxStack,1);
+		m.locals=locals;
+		return m;
+	}
+
+	/** emits stores of the variables defined back into the environment */
+	private void storeBack() {
+		for (Var v: order) {
+			Label skip=label();
+			local(1,ILOAD,v.flag);
+			branch(IFEQ,-1,skip);
+			local(1,ALOAD,ENV);
+			intConstant(v.slot);
+			op2(1,LDC_W,stringRef(v.name));
+			local(2,DLOAD,v.value);
+			invoke(INVOKEVIRTUAL,"Environment","put","(ILjava/lang/String;D)D",-3);
+			op(-2,POP2);
+			place(skip);
+		}
+	}
+
+	/**
+	 * Writes the class file: the methods emitted for the program, and
+	 * run(Environment), which calls them in order.
+	 * @return the class file
+	 * @throws IOException never, for byte arrays
+	 */
+	private byte[] classFile() throws IOException {
+		method();
+		for (int i=0; i<methods.size(); i++) {
+			local(1,ALOAD,ENV);
+			invoke(INVOKESTATIC,"JvmProgram","m"+i,"(LEnvironment;)V",-1);
+		}
+		op(0,RETURN);
+		if (pc>65535)
+			throw new UnsupportedOperationException("program too large");
+
+		int thisClass=classRef("JvmProgram");
+		int superClass=classRef("java/lang/Object");
+		int type=utf8("(LEnvironment;)V");
+		int codeName=utf8("Code");
+		int run=utf8("run");
+		int[] names=new int[methods.size()];
+		for (int i=0; i<names.length; i++)
+			names[i]=utf8("m"+i);
+		if (poolSize>65535)
+			throw new UnsupportedOperationException("program too large");
+
+		ByteArrayOutputStream file=new ByteArrayOutputStream();
+		DataOutputStream out=new DataOutputStream(file);
+		out.writeInt(0xcafebabe);
+		out.writeShort(0);		// minor version
+		out.writeShort(49);		// major version
+		out.writeShort(poolSize);
+		pool.writeTo(out);
+		out.writeShort(0x0011);	// public final
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(0);		// interfaces
+		out.writeShort(0);		// fields
+		out.writeShort(1+methods.size());	// methods
+		out.writeShort(0x0009);	// public static
+		out.writeShort(run);
+		out.writeShort(type);
+		out.writeShort(1);		// method attributes
+		out.writeShort(codeName);
+		out.writeInt(2+2+4+pc+2+2);
+		out.writeShort(maxStack);
+		out.writeShort(1);		// locals
+		out.writeInt(pc);
+		out.write(code,0,pc);
+		out.writeShort(0);		// exception table
+		out.writeShort(0);		// code attributes
+		for (int i=0; i<methods.size(); i++) {
+			Method m=methods.get(i);
+			out.writeShort(0x000a);	// private static
+			out.writeShort(names[i]);
+			out.writeShort(type);
+			out.writeShort(1);		// method attributes
+			out.writeShort(codeName);
+			out.writeInt(2+2+4+m.code.length+2+8+2);
+			out.writeShort(m.maxStack);
+			out.writeShort(m.locals);
+			out.writeInt(m.code.length);
+			out.write(m.code);
+			out.writeShort(1);		// exception table
+			out.writeShort(m.start);
+			out.writeShort(m.end);
+			out.writeShort(m.handler);
+			out.writeShort(0);		// any exception
+			out.writeShort(0);		// code attributes
+		}
+		out.writeShort(0);		// class attributes
+		return file.toByteArray();
+	}
+
+}
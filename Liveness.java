@@ -0,0 +1,81 @@
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Liveness removes dead assignments from a program: those whose value no
+ * statement reads before the variable is assigned again. A dead
+ * assignment still prints its value, so it becomes a wr of its expression
+ * (see NodeStmt.live()).
+ *
+ * It is the classic backward analysis of the variables live after each
+ * statement, over the tree. A while loop is taken to keep live every
+ * variable read anywhere in it, besides those live after it, which is
+ * more than it may, but needs no iterating to a fixed point.
+ *
+ * Programs share their Environment, so whatever a program leaves in a
+ * variable may be read by the next; and a program that fails part way
+ * leaves what it assigned so far. So every variable the program assigns
+ * is live at its end, and before any statement that may fail. Which may
+ * is found first by a forward pass (see Node.define()): a statement that
+ * reads a variable not certainly assigned before it in the program may
+ * find it undefined, and a rd may find no input.
+ */
+class Liveness {
+
+	private final BitSet all=new BitSet();	// variables the program assigns
+	private final Set<Node> failing=Collections.newSetFromMap(new IdentityHashMap<>());	// statements that may fail
+
+	private Liveness() {}
+
+	/**
+	 * Removes the dead assignments from a program.
+	 * @param block the program's statements
+	 */
+	static void prune(NodeBlock block) {
+		Liveness l=new Liveness();
+		block.writes(l.all);
+		block.define(new BitSet(),l);
+		block.live((BitSet) l.all.clone(),l);
+	}
+
+	/**
+	 * Notes that a statement may fail if an expression in it reads a
+	 * variable that may not be defined.
+	 * @param node the statement, or condition
+	 * @param expr the expression
+	 * @param defined the variables certainly defined before it
+	 */
+	void check(Node node, Node expr, BitSet defined) {
+		BitSet reads=new BitSet();
+		expr.reads(reads);
+		reads.andNot(defined);
+		if (!reads.isEmpty())
+			failing.add(node);
+	}
+
+	/**
+	 * Notes that a statement may fail.
+	 * @param node the statement
+	 */
+	void fail(Node node) {
+		failing.add(node);
+	}
+
+	/** @return how many statements may fail, so far */
+	int failures() {
+		return failing.size();
+	}
+
+	/**
+	 * Makes everything live before a statement that may fail.
+	 * @param node the statement, or condition
+	 * @param live the variables live before it, so far
+	 */
+	void before(Node node, BitSet live) {
+		if (failing.contains(node))
+			live.or(all);
+	}
+
+}
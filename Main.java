@@ -2,26 +2,268 @@
  * Main Class that is the entry point to the interpreter.
  * each command line arg represents the complete program written. Program is scanned, parsed into a parse tree and then evaluated
  * all evals share the same isntance.
+ *
+ * Options, which come before the programs:
+ *   --file     the remaining args name files holding the programs instead.
+ *              Those are read as they are scanned, so they need not fit on the command line or in memory as one String.
+ *              Files named *.tac hold programs already parsed (see Tac), and are loaded instead.
+ *   --tac      with --file, also write each program parsed from source to a .tac file, named for its source file
+ *   --closure  run each program by compiling it to closures (see Exec), instead of walking the parse tree
+ *   --jvm      run each program by compiling it to JVM bytecode (see Jvm)
+ *   --vm       run each program by compiling it to instructions for a register machine (see Vm)
+ *   --vmcopy   as --vm, but run each compiled program as written by Vm.write() and read back by Vm.read()
+ *   --profile  eval each program counting and timing its statements and loops, and report the costliest on stderr (see Profile)
+ *   --stats    time the scan, parse, eval, and code phases of each program, and report them on stderr (see Stats),
+ *              with the hits and misses of --cache
+ *   --noprompt rd does not prompt for values
+ *   --input F  rd reads values from file F, mapped into memory, instead of stdin
+ *   --parallel parse all the programs at once, on a fork-join pool, then run them in order
+ *   --cache N  keep the trees of the last N distinct programs given as text (see ParseCache), so repeats are not parsed again
+ *   --daemon S serve requests on Unix domain socket S, or on stdin and stdout if S is -, instead (see Daemon)
  */
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
 public class Main {
 	/**
 	 * entry to the translator
 	 * @param args langouage
 	 */
 	public static void main(String[] args) {
-		Parser parser=new Parser();
-		Environment env=new Environment();
-		String code="";
-		for (String prog: args)
-			try {
-				Node node=parser.parse(prog);
-				node.eval(env);
-				code+=node.code();
-			} catch (Exception e) {
-				System.err.println(e);
+		boolean files=false;
+		boolean tac=false;
+		String backend="--eval";
+		boolean prompt=true;
+		String input=null;
+		boolean parallel=false;
+		ParseCache cache=null;
+		Profile profile=null;
+		Stats stats=null;
+		Symbols symbols=new Symbols();
+		int i=0;
+		for (; i<args.length && args[i].startsWith("--"); i++)
+			switch (args[i]) {
+			case "--file": files=true; break;
+			case "--tac": tac=true; break;
+			case "--closure":
+			case "--jvm":
+			case "--vm":
+			case "--vmcopy":
+				backend=args[i];
+				break;
+			case "--profile": profile=new Profile(); break;
+			case "--stats": stats=new Stats(); break;
+			case "--noprompt": prompt=false; break;
+			case "--parallel": parallel=true; break;
+			case "--cache":
+				try {
+					cache=new ParseCache(symbols,Integer.parseInt(args[++i]));
+				} catch (RuntimeException e) {
+					System.err.println("--cache needs a positive number of programs");
+					return;
+				}
+				break;
+			case "--daemon":
+				if (++i==args.length) {
+					System.err.println("--daemon needs a socket");
+					return;
+				}
+				try {
+					Daemon.serve(args[i],cache);
+				} catch (IOException e) {
+					System.err.println(e);
+				}
+				return;
+			case "--input":
+				if (++i==args.length) {
+					System.err.println("--input needs a file name");
+					return;
+				}
+				input=args[i];
+				break;
+			default:
+				System.err.println("unknown option: "+args[i]);
+				return;
+			}
+		List<Future<Node>> parsed=new ArrayList<>();
+		if (parallel)
+			for (int k=i; k<args.length; k++) {
+				String arg=args[k];
+				boolean file=files, save=tac;
+				ParseCache c=cache;
+				Stats s=stats;
+				int program=k-i+1;
+				// a FutureTask, unlike a ForkJoinTask, rethrows exactly what the parse threw
+				FutureTask<Node> task=new FutureTask<>(() -> parse(new Parser(symbols),c,arg,file,save,s,program));
+				ForkJoinPool.commonPool().execute(task);
+				parsed.add(task);
+			}
+		Parser parser=new Parser(symbols);
+		Environment env;
+		try {
+			env=new Environment(new Output(System.out),
+				input==null ? new Input(System.in,prompt) : new Input(Paths.get(input),prompt));
+		} catch (IOException e) {
+			System.err.println(e);
+			return;
+		}
+		Code code=new Code();
+		try {
+			for (int k=0; i<args.length; i++, k++)
+				try {
+					Node node=parallel ? join(parsed.set(k,null)) : parse(parser,cache,args[i],files,tac,stats,k+1);
+					Stats.Phase phase=Stats.start(stats,"eval",k+1);
+					if (profile!=null)
+						profile.run(node,env);
+					else if (backend.equals("--vmcopy"))
+						runVmCopy(node,env,symbols);
+					else
+						run(node,env,backend);
+					phase.end();
+					phase=Stats.start(stats,"code",k+1);
+					code.add(node,symbols);
+					phase.end();
+				} catch (Exception e) {
+					env.out().flush();	// what the program printed comes before its error
+					System.err.println(e);
+				} finally {
+					env.out().flush();
+				}
+		} finally {
+			env.in().close();
+		}
+		code.close();
+		if (profile!=null)
+			profile.report(System.err);
+		if (stats!=null) {
+			stats.report(System.err);
+			if (cache!=null)
+				System.err.println(cache.summary());
+		}
+	}
+
+	/**
+	 * runs a program
+	 * @param node the program
+	 * @param env current run time environment
+	 * @param backend how to run it: --closure, --jvm, --vm, or anything else to eval() it
+	 * @throws EvalException if the program fails
+	 */
+	static void run(Node node, Environment env, String backend) throws EvalException {
+		switch (backend) {
+		case "--closure": node.compile().run(env); break;
+		case "--jvm": Jvm.run(node,env); break;
+		case "--vm": runVm(node,env); break;
+		default: node.eval(env);
+		}
+	}
+
+	/**
+	 * runs a program on the Vm, or evaluates it if it cannot be compiled
+	 * @param node the program
+	 * @param env current run time environment
+	 * @throws EvalException if the program fails
+	 */
+	private static void runVm(Node node, Environment env) throws EvalException {
+		Vm vm;
+		try {
+			vm=Vm.compile(node);
+		} catch (UnsupportedOperationException e) {
+			node.eval(env);
+			return;
+		}
+		vm.run(env);
+	}
+
+	/**
+	 * runs a copy of a program compiled for the Vm, made by writing it and
+	 * reading it back, or evaluates it if it cannot be compiled
+	 * @param node the program
+	 * @param env current run time environment
+	 * @param symbols resolves the variables of the copy to slots
+	 * @throws EvalException if the program fails
+	 * @throws IOException if the copy cannot be read back
+	 */
+	private static void runVmCopy(Node node, Environment env, Symbols symbols) throws EvalException, IOException {
+		Vm vm;
+		try {
+			vm=Vm.compile(node);
+		} catch (UnsupportedOperationException e) {
+			node.eval(env);
+			return;
+		}
+		ByteArrayOutputStream copy=new ByteArrayOutputStream();
+		vm.write(new DataOutputStream(copy));
+		Vm.read(new DataInputStream(new ByteArrayInputStream(copy.toByteArray())),symbols).run(env);
+	}
+
+	/**
+	 * parses a program
+	 * @param parser the parser
+	 * @param cache where to look for the program's tree first, or null
+	 * @param arg the program, or the name of the file holding it
+	 * @param file whether arg is a file name
+	 * @param tac whether to write a program parsed from a file to a .tac file
+	 * @param stats where to keep the measurements of its scan and parse phases, or null
+	 * @param program number of the program, from 1
+	 * @return the root node of the syntax tree
+	 * @throws Exception if a file cannot be read or written, or parsing fails
+	 */
+	private static Node parse(Parser parser, ParseCache cache, String arg, boolean file, boolean tac, Stats stats, int program) throws Exception {
+		Node prog;
+		if (file&&arg.endsWith(".tac")||!file&&cache!=null) {
+			Stats.Phase phase=Stats.start(stats,"parse",program);
+			prog=file ? Tac.load(Paths.get(arg),parser.symbols()) : cache.parse(arg);
+			phase.end();
+			return prog;
+		}
+		parser.time(Stats.measuring(stats));
+		Stats.Phase phase=Stats.start(stats,"parse",program);
+		if (!file)
+			prog=parser.parse(arg);
+		else
+			try (FileChannel in=FileChannel.open(Paths.get(arg))) {
+				prog=parser.parse(in);
+			}
+		phase.end(parser.scanned(),parser.tokens(),parser.nodes(),parser.statements());
+		if (!file)
+			return prog;
+		if (tac)
+			try (OutputStream out=new BufferedOutputStream(Files.newOutputStream(Paths.get(arg.replaceFirst("(\\.[^./]*)?$",".tac"))))) {
+				Tac.write(prog,out);
 			}
-		new Code(code,env);
+		return prog;
+	}
+
+	/**
+	 * waits for a program being parsed in parallel
+	 * @param task the parse
+	 * @return the root node of the syntax tree
+	 * @throws Exception what the parse threw
+	 */
+	private static Node join(Future<Node> task) throws Exception {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
 	}
 
 }
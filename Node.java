@@ -1,3 +1,7 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.BitSet;
+
 /**
  * Abstract node class that represents a single node in the parse tree
  */
@@ -6,6 +10,9 @@ public abstract class Node {
 	/* position of the node in the input source */
 	protected int pos=0;
 
+	/* longest operator chain that quicken() nests operator nodes for */
+	protected static final int CHAIN=16;
+
     public int pos() {
         return pos;
     }
@@ -24,6 +31,152 @@ public abstract class Node {
 	 * generates the C source code for this node
 	 * @return string of C source code
 	 */
-	public String code() { return ""; }
+	public String code() {
+		StringBuilder sb=new StringBuilder();
+		try {
+			code(sb);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);	// not from a StringBuilder
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the C source code for this node, so that a whole program can
+	 * be streamed to a file without building it as a String.
+	 * @param out where to write
+	 * @throws IOException if writing fails
+	 */
+	public void code(Appendable out) throws IOException {}
+
+	/**
+	 * Simplifies this node, and the nodes below it, before it is run.
+	 * Subexpressions made only of literals are replaced by one literal.
+	 * @return the simplified node, which may be this node
+	 */
+	public Node fold() { return this; }
+
+	/**
+	 * Compiles this node to a closure that does what eval() does: the
+	 * eval() of the node quicken() makes, so the closures are those nodes.
+	 * @return the closure
+	 */
+	public Exec compile() { return quicken()::eval; }
+
+	/**
+	 * Makes the node that eval() runs in place of this one: a node that
+	 * does only what this one does, with its children made the same way,
+	 * so running it does not test what kind of node it is. NodeProg makes
+	 * it the first time it runs, and keeps this tree for everything else.
+	 * By default a node does only one thing already.
+	 * @return the specialized node
+	 */
+	public Node quicken() { return this; }
+
+	/**
+	 * Writes this node, and the nodes below it, in the binary form of a
+	 * program (see Tac). By default the node cannot be written.
+	 * @param t the program being written
+	 */
+	void tac(Tac t) {
+		throw new UnsupportedOperationException("cannot tac() node!");
+	}
+
+	/**
+	 * Emits JVM bytecode that does what eval() does (see Jvm).
+	 * Expressions leave their value on the stack; statements leave nothing.
+	 * By default the node cannot be compiled, and the program is evaluated.
+	 * @param j bytecode being emitted
+	 */
+	public void jvm(Jvm j) {
+		throw new UnsupportedOperationException("cannot jvm() node!");
+	}
+
+	/**
+	 * Emits Vm instructions that do what eval() does.
+	 * By default the node cannot be compiled, and the program is evaluated.
+	 * @param c instructions being emitted
+	 * @param dst register for the value of an expression, or -1 for any
+	 * @return register holding the value of an expression, or -1 for a statement
+	 */
+	public int vm(VmCompiler c, int dst) {
+		throw new UnsupportedOperationException("cannot vm() node!");
+	}
+
+	/**
+	 * Adds the slots of the variables this node reads to a set.
+	 * By default a node reads none.
+	 * @param slots the set
+	 */
+	void reads(BitSet slots) {}
+
+	/**
+	 * Adds the variables this statement certainly assigns to the set of
+	 * those defined, noting whether it may fail with only those defined
+	 * before it (see Liveness). By default a node does neither.
+	 * @param defined the variables certainly defined
+	 * @param l the program's Liveness
+	 */
+	void define(BitSet defined, Liveness l) {}
+
+	/**
+	 * Removes the dead assignments in this statement (see Liveness), and
+	 * makes a set of the variables live after it those live before it.
+	 * By default a node has none, and reads none.
+	 * @param live the variables live
+	 * @param l the program's Liveness
+	 */
+	void live(BitSet live, Liveness l) {}
+
+	/**
+	 * Adds the slots of the variables this statement assigns to a set.
+	 * By default a node assigns none.
+	 * @param slots the set
+	 */
+	void writes(BitSet slots) {}
+
+	/**
+	 * Hoists the largest invariant expressions in this statement, or
+	 * condition, out of the loop being quickened or written (see Hoist).
+	 * By default a node has none.
+	 * @param h the loop's Hoist
+	 */
+	void hoist(Hoist h) {}
+
+	/**
+	 * Tells whether this expression is invariant in a loop, and if it is
+	 * not, hoists its largest invariant parts instead.
+	 * By default a node is not invariant, and has no parts.
+	 * @param h the loop's Hoist
+	 * @return whether it is invariant
+	 */
+	boolean invariant(Hoist h) { return false; }
+
+	/**
+	 * Hoists this invariant expression, or, if it has no operator, the
+	 * largest expression in it that has.
+	 * @param h the loop's Hoist
+	 */
+	void hoistInvariant(Hoist h) {}
+
+	/**
+	 * Specializes, as quicken() does, the start of this expression, its
+	 * first term, or factor, and some of the operators after it (see Hoist).
+	 * @param ops how many operators
+	 * @return the specialized node
+	 */
+	Node quicken(int ops) {
+		throw new UnsupportedOperationException("cannot quicken() part of node!");
+	}
+
+	/**
+	 * Writes the C code for the start of this expression (see quicken(int)).
+	 * @param out where to write
+	 * @param ops how many operators
+	 * @throws IOException if writing fails
+	 */
+	void code(Appendable out, int ops) throws IOException {
+		throw new UnsupportedOperationException("cannot code() part of node!");
+	}
 
 }
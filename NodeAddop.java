@@ -1,3 +1,5 @@
+import java.io.IOException;
+
 /**
  * Addition and subtraction operator node in the parse tree.
  * NodeAddop stores the operator and provides methods for performing arithmetic during eval and generation of code output
@@ -6,6 +8,7 @@ public class NodeAddop extends Node {
 
 	/* Operator symbol (+ or -)*/
 	private String addop;
+	private char kind;	// first char of addop, so op() need not compare Strings
 
 	/**
 	 * Constructs a NodeAddop with the given source position and operator
@@ -15,6 +18,7 @@ public class NodeAddop extends Node {
 	public NodeAddop(int pos, String addop) {
 		this.pos=pos;
 		this.addop=addop;
+		this.kind=addop.length()==1 ? addop.charAt(0) : '?';
 	}
 
 	/**
@@ -25,17 +29,66 @@ public class NodeAddop extends Node {
 	 * @throws EvalException if operator symbol is invalid
 	 */
 	public double op(double o1, double o2) throws EvalException {
-		if (addop.equals("+"))
-			return o1+o2;
-		if (addop.equals("-"))
-			return o1-o2;
+		switch (kind) {
+		case '+': return o1+o2;
+		case '-': return o1-o2;
+		}
 		throw new EvalException(pos,"bogus addop: "+addop);
 	}
 
 	/**
-	 * returns op symbol as C code
-	 * @return string
+	 * Makes the node that eval() runs for this operator applied to two
+	 * operands (see Node.quicken()).
+	 * @param l left hand side, specialized
+	 * @param r right hand side, specialized
+	 * @return an add or subtract node, or null if the operator is bogus
+	 */
+	public Node quicken(Node l, Node r) {
+		switch (kind) {
+		case '+': return new Add(l,r);
+		case '-': return new Sub(l,r);
+		default: return null;
+		}
+	}
+
+	private static class Add extends Node {
+		private final Node l, r;
+		Add(Node l, Node r) { this.l=l; this.r=r; }
+		public double eval(Environment env) throws EvalException { return l.eval(env)+r.eval(env); }
+	}
+
+	private static class Sub extends Node {
+		private final Node l, r;
+		Sub(Node l, Node r) { this.l=l; this.r=r; }
+		public double eval(Environment env) throws EvalException { return l.eval(env)-r.eval(env); }
+	}
+
+	@Override
+	public void jvm(Jvm j) { j.arith(addop); }
+
+	/**
+	 * Compiles this operator for the Vm, given its compiled left operand.
+	 * @param c instructions being emitted
+	 * @param dst register for the result, or -1 for any
+	 * @param left register holding the left hand side
+	 * @param right right hand side
+	 * @return register holding the result
+	 */
+	public int vm(VmCompiler c, int dst, int left, Node right) {
+		return c.arith(addop,dst,left,right);
+	}
+
+	@Override
+	void tac(Tac t) {
+		t.pos(pos);
+		t.string(addop);
+	}
+
+	/**
+	 * writes op symbol as C code
+	 * @param out where to write
+	 * @throws IOException if writing fails
 	 */
-	public String code() { return addop; }
+	public void code(Appendable out) throws IOException { out.append(addop); }
 
 }
@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.util.BitSet;
+
 /**
  * Represent an assignment statement node in the parse tree.
  *
@@ -6,15 +9,18 @@
 public class NodeAssn extends Node {
 
 	private String id;
+	private int slot;
 	private NodeExpr expr;
 
 	/**
 	 * Constructs a NodeAssn with a variable identifier and an expression
 	 * @param id var name
+	 * @param slot slot of the variable
 	 * @param expr expression with the value to assign
 	 */
-	public NodeAssn(String id, NodeExpr expr) {
+	public NodeAssn(String id, int slot, NodeExpr expr) {
 		this.id = id;
+		this.slot = slot;
 		this.expr = expr;
 	}
 
@@ -25,15 +31,103 @@ public class NodeAssn extends Node {
 	 * @throws EvalException if an evaluation error occurs
 	 */
 	public double eval(Environment env) throws EvalException {
-		return env.put(id, new NodeWr(expr).eval(env));
+		return env.put(slot, id, NodeWr.print(expr.eval(env), env));
+	}
+
+	@Override
+	public Node quicken() {
+		return new Assign(slot, id, expr.quicken());
+	}
+
+	private static class Assign extends Node {
+		private final int slot;
+		private final String id;
+		private final Node expr;
+		Assign(int slot, String id, Node expr) {
+			this.slot = slot;
+			this.id = id;
+			this.expr = expr;
+		}
+		public double eval(Environment env) throws EvalException {
+			return env.put(slot, id, NodeWr.print(expr.eval(env), env));
+		}
+	}
+
+	@Override
+	public void jvm(Jvm j) {
+		expr.jvm(j);
+		j.print();
+		j.store(slot, id);
+	}
+
+	@Override
+	public int vm(VmCompiler c, int dst) {
+		int r = c.var(slot, id);
+		expr.vm(c, r);
+		c.assign(r);
+		return -1;
+	}
+
+	@Override
+	public NodeAssn fold() {
+		expr=expr.fold();
+		return this;
+	}
+
+	@Override
+	void writes(BitSet slots) {
+		slots.set(slot);
+	}
+
+	@Override
+	void reads(BitSet slots) {
+		expr.reads(slots);
+	}
+
+	@Override
+	void define(BitSet defined, Liveness l) {
+		l.check(this,expr,defined);
+		defined.set(slot);
+	}
+
+	@Override
+	void live(BitSet live, Liveness l) {
+		live.clear(slot);
+		expr.reads(live);
+		l.before(this,live);
+	}
+
+	/**
+	 * @param live the variables live after this assignment
+	 * @return a statement that prints what this assigns, without assigning
+	 *         it, if the variable is not live, else null
+	 */
+	NodeWr dead(BitSet live) {
+		return live.get(slot) ? null : new NodeWr(expr);
+	}
+
+	@Override
+	void hoist(Hoist h) {
+		h.expr(expr);
+	}
+
+	@Override
+	void tac(Tac t) {
+		t.name(id);
+		expr.tac(t);
 	}
 
 	/**
-	 * Makes the C code for the assignment statement
-	 * @return C source code
+	 * Writes the C code for the assignment statement
+	 * @param out where to write
+	 * @throws IOException if writing fails
 	 */
-	public String code() {
-		return id + "=" + expr.code() + ";\n" + new NodeWr(expr).code();
+	public void code(Appendable out) throws IOException {
+		out.append(id).append("=");
+		expr.code(out);
+		// print the variable, since expr may refer to it
+		out.append(";\n")
+			.append("printf(\"%g\\n\",").append(id).append(");\n");
 	}
 
 }
@@ -1,21 +1,155 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A sequence of statements, kept in one flat list so that parsing,
+ * evaluation and code generation loop over it instead of recursing.
+ */
 public class NodeBlock extends Node {
 
-    private NodeStmt stmt;
-    private NodeBlock block;
+    private List<NodeStmt> stmts = new ArrayList<>();
+
+    public NodeBlock(NodeStmt stmt) {
+        stmts.add(stmt);
+    }
+
+    /**
+     * Constructs an empty block, which is what is left of a statement, or
+     * program, when folding finds it does nothing.
+     */
+    public NodeBlock() {
+    }
+
+    /**
+     * @return whether the block has no statements
+     */
+    public boolean empty() {
+        return stmts.isEmpty();
+    }
 
-    public NodeBlock(NodeStmt stmt, NodeBlock block) {
-        this.stmt = stmt;
-        this.block = block;
+    /**
+     * Appends a statement to the end of this block.
+     * @param stmt the statement
+     */
+    public void add(NodeStmt stmt) {
+        stmts.add(stmt);
     }
 
     public double eval(Environment env) throws EvalException {
-        double result = stmt.eval(env);
-        if (block != null)
-            result = block.eval(env);
+        double result = 0;
+        for (int i = 0; i < stmts.size(); i++)
+            result = stmts.get(i).eval(env);
         return result;
     }
 
-    public String code() {
-        return stmt.code() + (block == null ? "" : block.code());
+    /**
+     * Folds the statements, dropping those that turn out to do nothing.
+     * @return this block
+     */
+    @Override
+    public NodeBlock fold() {
+        int n = 0;
+        for (int i = 0; i < stmts.size(); i++) {
+            NodeStmt stmt = stmts.get(i).fold();
+            if (!stmt.empty())
+                stmts.set(n++, stmt);
+        }
+        stmts.subList(n, stmts.size()).clear();
+        return this;
+    }
+
+    @Override
+    public Node quicken() {
+        if (stmts.size() == 1)
+            return stmts.get(0).quicken();
+        Node[] run = new Node[stmts.size()];
+        for (int i = 0; i < run.length; i++)
+            run[i] = stmts.get(i).quicken();
+        return new Seq(run);
+    }
+
+    private static class Seq extends Node {
+        private final Node[] stmts;
+        Seq(Node[] stmts) { this.stmts = stmts; }
+        public double eval(Environment env) throws EvalException {
+            double result = 0;
+            for (Node s : stmts)
+                result = s.eval(env);
+            return result;
+        }
+    }
+
+    @Override
+    public void jvm(Jvm j) {
+        for (int i = 0; i < stmts.size(); i++)
+            stmts.get(i).jvm(j);
+    }
+
+    /**
+     * Emits the statements of a program: each while loop in a JVM method
+     * of its own, and the statements between them in methods no larger
+     * than HotSpot compiles (see Jvm.method()).
+     * @param j bytecode being emitted
+     */
+    public void jvmMethods(Jvm j) {
+        for (int i = 0; i < stmts.size(); i++) {
+            NodeStmt stmt = stmts.get(i);
+            if (stmt.loop() || j.full())
+                j.method();
+            stmt.jvm(j);
+            if (stmt.loop())
+                j.method();
+        }
+    }
+
+    @Override
+    public int vm(VmCompiler c, int dst) {
+        for (int i = 0; i < stmts.size(); i++)
+            stmts.get(i).vm(c, -1);
+        return -1;
+    }
+
+    @Override
+    void writes(BitSet slots) {
+        for (int i = 0; i < stmts.size(); i++)
+            stmts.get(i).writes(slots);
+    }
+
+    @Override
+    void reads(BitSet slots) {
+        for (int i = 0; i < stmts.size(); i++)
+            stmts.get(i).reads(slots);
+    }
+
+    @Override
+    void define(BitSet defined, Liveness l) {
+        for (int i = 0; i < stmts.size(); i++)
+            stmts.get(i).define(defined, l);
+    }
+
+    @Override
+    void live(BitSet live, Liveness l) {
+        for (int i = stmts.size() - 1; i >= 0; i--)
+            stmts.get(i).live(live, l);
+    }
+
+    @Override
+    void hoist(Hoist h) {
+        for (int i = 0; i < stmts.size(); i++)
+            stmts.get(i).hoist(h);
+    }
+
+    @Override
+    void tac(Tac t) {
+        t.count(stmts.size());
+        for (int i = 0; i < stmts.size(); i++)
+            stmts.get(i).tac(t);
+    }
+
+    public void code(Appendable out) throws IOException {
+        for (int i = 0; i < stmts.size(); i++)
+            stmts.get(i).code(out);
     }
 }
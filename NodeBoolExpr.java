@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.util.BitSet;
+
 public class NodeBoolExpr extends Node {
     private NodeExpr expr1, expr2;
     private String relop;
@@ -9,8 +12,16 @@ public class NodeBoolExpr extends Node {
     }
 
     public double eval(Environment env) throws EvalException {
-        double left = expr1.eval(env);
-        double right = expr2.eval(env);
+        return compare(expr1.eval(env), expr2.eval(env));
+    }
+
+    /**
+     * @param left value of the left expression
+     * @param right value of the right expression
+     * @return 1 if they compare as relop says, else 0
+     * @throws EvalException if relop is not one
+     */
+    private double compare(double left, double right) throws EvalException {
         switch (relop) {
             case "<":  return left < right ? 1 : 0;
             case "<=": return left <= right ? 1 : 0;
@@ -22,7 +33,131 @@ public class NodeBoolExpr extends Node {
         }
     }
 
-    public String code() {
-        return "(" + expr1.code() + " " + relop + " " + expr2.code() + ")";
+    @Override
+    public NodeBoolExpr fold() {
+        expr1 = expr1.fold();
+        expr2 = expr2.fold();
+        return this;
+    }
+
+    /**
+     * @return this comparison, once folded, as a literal, 1 or 0, or null
+     *         if it is not made only of literals
+     */
+    public NodeFactNum constant() {
+        NodeFactNum left = expr1.constant(), right = expr2.constant();
+        if (left == null || right == null)
+            return null;
+        try {
+            return new NodeFactNum(compare(left.value(), right.value()));
+        } catch (EvalException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Specializes this comparison for eval(), to a node for its relop.
+     * @return the specialized node
+     */
+    @Override
+    public Node quicken() {
+        Node l = expr1.quicken(), r = expr2.quicken();
+        switch (relop) {
+            case "<":  return new Lt(l, r);
+            case "<=": return new Le(l, r);
+            case ">":  return new Gt(l, r);
+            case ">=": return new Ge(l, r);
+            case "==": return new Eq(l, r);
+            case "<>": return new Ne(l, r);
+            default: return this;
+        }
+    }
+
+    private abstract static class Compare extends Node {
+        protected final Node l, r;
+        Compare(Node l, Node r) { this.l = l; this.r = r; }
+    }
+
+    private static class Lt extends Compare {
+        Lt(Node l, Node r) { super(l, r); }
+        public double eval(Environment env) throws EvalException { return l.eval(env) < r.eval(env) ? 1 : 0; }
+    }
+
+    private static class Le extends Compare {
+        Le(Node l, Node r) { super(l, r); }
+        public double eval(Environment env) throws EvalException { return l.eval(env) <= r.eval(env) ? 1 : 0; }
+    }
+
+    private static class Gt extends Compare {
+        Gt(Node l, Node r) { super(l, r); }
+        public double eval(Environment env) throws EvalException { return l.eval(env) > r.eval(env) ? 1 : 0; }
+    }
+
+    private static class Ge extends Compare {
+        Ge(Node l, Node r) { super(l, r); }
+        public double eval(Environment env) throws EvalException { return l.eval(env) >= r.eval(env) ? 1 : 0; }
+    }
+
+    private static class Eq extends Compare {
+        Eq(Node l, Node r) { super(l, r); }
+        public double eval(Environment env) throws EvalException { return l.eval(env) == r.eval(env) ? 1 : 0; }
+    }
+
+    private static class Ne extends Compare {
+        Ne(Node l, Node r) { super(l, r); }
+        public double eval(Environment env) throws EvalException { return l.eval(env) != r.eval(env) ? 1 : 0; }
+    }
+
+    /**
+     * Emits the comparison, jumping to a label if it is false.
+     * @param j bytecode being emitted
+     * @param otherwise where to jump
+     */
+    public void jvmUnless(Jvm j, Jvm.Label otherwise) {
+        expr1.jvm(j);
+        expr2.jvm(j);
+        j.jumpUnless(relop, otherwise);
+    }
+
+    /**
+     * Compiles the comparison for the Vm, jumping to a label if it is false.
+     * @param c instructions being emitted
+     * @param otherwise where to jump
+     */
+    public void vmUnless(VmCompiler c, VmCompiler.Label otherwise) {
+        c.jumpUnless(expr1.vm(c, -1), relop, expr2, otherwise);
+    }
+
+    @Override
+    void reads(BitSet slots) {
+        expr1.reads(slots);
+        expr2.reads(slots);
+    }
+
+    @Override
+    void define(BitSet defined, Liveness l) {
+        l.check(this, expr1, defined);
+        l.check(this, expr2, defined);
+    }
+
+    @Override
+    void hoist(Hoist h) {
+        h.expr(expr1);
+        h.expr(expr2);
+    }
+
+    @Override
+    void tac(Tac t) {
+        expr1.tac(t);
+        t.string(relop);
+        expr2.tac(t);
+    }
+
+    public void code(Appendable out) throws IOException {
+        out.append("(");
+        expr1.code(out);
+        out.append(" ").append(relop).append(" ");
+        expr2.code(out);
+        out.append(")");
     }
 }
@@ -1,60 +1,267 @@
 /**
  * Represents an expression node in the parse tree
- * Each NodeExpr stores one term an opptional addop and an optional following expression
+ * Each NodeExpr stores its first term followed by any number of addop-term pairs,
+ * which are applied from left to right.
  * Can be evaluated or translated into C code
  */
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
 public class NodeExpr extends Node {
 
 	private NodeTerm term;
-	private NodeAddop addop;
-	private NodeExpr expr;
+	// shared empty lists until something is appended, since most have nothing
+	private List<NodeAddop> addops=Collections.emptyList();
+	private List<NodeTerm> terms=Collections.emptyList();
 
 	/**
-	 * Constructs an expression node made of a term, optional addop and expr
+	 * Constructs an expression node made of a single term
 	 * @param term lefthand term
-	 * @param addop addition or subtration or null
-	 * @param expr the expression or null
 	 */
-	public NodeExpr(NodeTerm term, NodeAddop addop, NodeExpr expr) {
+	public NodeExpr(NodeTerm term) {
 		this.term=term;
-		this.addop=addop;
-		this.expr=expr;
 	}
 
 	/**
-	 * Appends another expresion node to this one.
-	 * Used to add recursive parts of the expression tree together.
-	 * @param expr another NodeExpr
+	 * Appends another addop and term to the right end of this expression.
+	 * @param addop addition or subtraction
+	 * @param term the right operand
+	 */
+	public void append(NodeAddop addop, NodeTerm term) {
+		if (addops.isEmpty()) {
+			addops=new ArrayList<>();
+			terms=new ArrayList<>();
+		}
+		addops.add(addop);
+		terms.add(term);
+	}
+
+	/**
+	 * @return this expression as a literal, or null if it is not just one
 	 */
-	public void append(NodeExpr expr) {
-		if (this.expr==null) {
-			this.addop=expr.addop;
-			this.expr=expr;
-			expr.addop=null;
-		} else
-			this.expr.append(expr);
+	public NodeFactNum constant() {
+		return terms.isEmpty() ? term.constant() : null;
 	}
 
 	/**
-	 * Evaluates this expression recursively.
+	 * Folds the terms, then the longest run of literals at the left end.
+	 * Only a prefix can be folded, since reordering would change the result.
+	 * @return this expression
+	 */
+	@Override
+	public NodeExpr fold() {
+		term=term.fold();
+		for (int i=0; i<terms.size(); i++)
+			terms.set(i,terms.get(i).fold());
+		NodeFactNum num=term.constant();
+		if (num==null)
+			return this;
+		double result=num.value();
+		int n=0;
+		for (; n<terms.size() && terms.get(n).constant()!=null; n++) {
+			double r;
+			try {
+				r=addops.get(n).op(result,terms.get(n).constant().value());
+			} catch (EvalException e) {
+				break;
+			}
+			if (!Double.isFinite(r))
+				break;
+			result=r;
+		}
+		if (n>0) {
+			term=new NodeTerm(new NodeFactNum(result));
+			addops.subList(0,n).clear();
+			terms.subList(0,n).clear();
+		}
+		return this;
+	}
+
+	/**
+	 * Evaluates this expression from left to right.
 	 * If there is no addop the value of the term is returned.
-	 * otherwise the operator is applied to the evaluated sub expressions.
+	 * otherwise each operator is applied to the value so far and the next term.
 	 * @param env current environment with the variables
 	 * @return the result of evaluating the expression
 	 * @throws EvalException if an error occurs during evaluation
 	 */
 	public double eval(Environment env) throws EvalException {
-		return expr==null
-			? term.eval(env)
-			: addop.op(expr.eval(env),term.eval(env));
+		double result=term.eval(env);
+		for (int i=0; i<terms.size(); i++)
+			result=addops.get(i).op(result,terms.get(i).eval(env));
+		return result;
+	}
+
+	/**
+	 * Specializes this expression for eval() into a tree of binary operator
+	 * nodes, or just its term if it has no operator. A long chain becomes
+	 * one node that loops instead, so running it does not recurse once
+	 * per operator.
+	 * @return the specialized node
+	 */
+	@Override
+	public Node quicken() {
+		Hoist.Temp temp=Hoist.temp(this);
+		if (temp!=null)
+			return quicken(temp.use(),temp.ops(),terms.size());
+		return quicken(term.quicken(),0,terms.size());
+	}
+
+	@Override
+	Node quicken(int ops) {
+		return quicken(term.quicken(),0,ops);
 	}
 
 	/**
-	 * Makes the equivalent C code for this expression.
-	 * @return C code
+	 * @param first the value so far, specialized
+	 * @param from index of the first operator to apply to it
+	 * @param to index past the last
+	 * @return first, with the operators from..to applied, specialized
 	 */
-	public String code() {
-		return (expr==null ? "" : expr.code()+addop.code())+term.code();
+	private Node quicken(Node first, int from, int to) {
+		if (from==to)
+			return first;
+		Node[] rest=new Node[to-from];
+		for (int i=0; i<rest.length; i++)
+			rest[i]=terms.get(from+i).quicken();
+		if (rest.length<=CHAIN) {
+			Node result=first;
+			for (int i=0; i<rest.length && result!=null; i++)
+				result=addops.get(from+i).quicken(result,rest[i]);
+			if (result!=null)
+				return result;
+		}
+		return new Chain(first,addops.subList(from,to).toArray(new NodeAddop[0]),rest);
+	}
+
+	private static class Chain extends Node {
+		private final Node first;
+		private final NodeAddop[] ops;
+		private final Node[] rest;
+		Chain(Node first, NodeAddop[] ops, Node[] rest) {
+			this.first=first;
+			this.ops=ops;
+			this.rest=rest;
+		}
+		public double eval(Environment env) throws EvalException {
+			double d=first.eval(env);
+			for (int i=0; i<rest.length; i++)
+				d=ops[i].op(d,rest[i].eval(env));
+			return d;
+		}
+	}
+
+	/**
+	 * Hoists the longest invariant prefix of this expression that has an
+	 * operator, since only a prefix has the same value computed apart, then
+	 * each invariant term after it, unless all of it is invariant.
+	 */
+	@Override
+	boolean invariant(Hoist h) {
+		boolean head=term.invariant(h), prefix=head;
+		int n=0;	// operators in the prefix
+		for (int i=0; i<terms.size(); i++)
+			if (!terms.get(i).invariant(h))
+				prefix=false;
+			else if (prefix)
+				n++;
+			else
+				terms.get(i).hoistInvariant(h);
+		if (prefix)
+			return true;
+		if (n>0)
+			h.add(this,n);
+		else if (head)
+			term.hoistInvariant(h);
+		return false;
+	}
+
+	@Override
+	void reads(BitSet slots) {
+		term.reads(slots);
+		for (int i=0; i<terms.size(); i++)
+			terms.get(i).reads(slots);
+	}
+
+	@Override
+	void hoistInvariant(Hoist h) {
+		if (terms.isEmpty())
+			term.hoistInvariant(h);
+		else
+			h.add(this,terms.size());
+	}
+
+	/**
+	 * Emits the terms, each followed by its operator, so that they are
+	 * applied from left to right.
+	 * @param j bytecode being emitted
+	 */
+	@Override
+	public void jvm(Jvm j) {
+		term.jvm(j);
+		for (int i=0; i<terms.size(); i++) {
+			terms.get(i).jvm(j);
+			addops.get(i).jvm(j);
+		}
+	}
+
+	/**
+	 * Compiles the terms from left to right. Only the last operator
+	 * writes to dst, so the terms may still read what it held.
+	 * @param c instructions being emitted
+	 * @param dst register for the value, or -1 for any
+	 * @return register holding the value
+	 */
+	@Override
+	public int vm(VmCompiler c, int dst) {
+		if (terms.isEmpty())
+			return term.vm(c,dst);
+		int r=term.vm(c,-1);
+		for (int i=0; i<terms.size(); i++)
+			r=addops.get(i).vm(c,i==terms.size()-1 ? dst : -1,r,terms.get(i));
+		return r;
+	}
+
+	@Override
+	void tac(Tac t) {
+		term.tac(t);
+		t.count(terms.size());
+		for (int i=0; i<terms.size(); i++) {
+			addops.get(i).tac(t);
+			terms.get(i).tac(t);
+		}
+	}
+
+	/**
+	 * Writes the equivalent C code for this expression.
+	 * @param out where to write
+	 * @throws IOException if writing fails
+	 */
+	public void code(Appendable out) throws IOException {
+		Hoist.Temp temp=Hoist.temp(this);
+		if (temp==null)
+			code(out,terms.size());
+		else {
+			out.append(temp.name());
+			code(out,temp.ops(),terms.size());
+		}
+	}
+
+	@Override
+	void code(Appendable out, int ops) throws IOException {
+		term.code(out);
+		code(out,0,ops);
+	}
+
+	/** Writes the C code for the operators from..to, and their operands. */
+	private void code(Appendable out, int from, int to) throws IOException {
+		for (int i=from; i<to; i++) {
+			addops.get(i).code(out);
+			terms.get(i).code(out);
+		}
 	}
 
 }
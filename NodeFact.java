@@ -1,4 +1,14 @@
 /**
  * Factor node in the parse tree.
  */
-public abstract class NodeFact extends Node {}
+public abstract class NodeFact extends Node {
+
+	@Override
+	public NodeFact fold() { return this; }
+
+	/**
+	 * @return this factor as a literal, or null if it is not one
+	 */
+	public NodeFactNum constant() { return null; }
+
+}
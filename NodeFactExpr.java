@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.util.BitSet;
+
 /**
  * Represents a parenthesized expression node in the parse tree.
  *
@@ -25,10 +28,58 @@ public class NodeFactExpr extends NodeFact {
 		return expr.eval(env);
 	}
 
+	@Override
+	public NodeFact fold() {
+		expr=expr.fold();
+		NodeFactNum num=expr.constant();
+		return num==null ? this : num;
+	}
+
+	@Override
+	public Node quicken() {
+		return expr.quicken();
+	}
+
+	@Override
+	public void jvm(Jvm j) {
+		expr.jvm(j);
+	}
+
+	@Override
+	public int vm(VmCompiler c, int dst) {
+		return expr.vm(c,dst);
+	}
+
+	@Override
+	void reads(BitSet slots) {
+		expr.reads(slots);
+	}
+
+	@Override
+	boolean invariant(Hoist h) {
+		return expr.invariant(h);
+	}
+
+	@Override
+	void hoistInvariant(Hoist h) {
+		expr.hoistInvariant(h);
+	}
+
+	@Override
+	void tac(Tac t) {
+		t.tag(Tac.EXPR);
+		expr.tac(t);
+	}
+
 	/**
-	 * Generates C code for parenthesized expression
-	 * @return
+	 * Writes C code for parenthesized expression
+	 * @param out where to write
+	 * @throws IOException if writing fails
 	 */
-	public String code() { return "("+expr.code()+")"; }
+	public void code(Appendable out) throws IOException {
+		out.append("(");
+		expr.code(out);
+		out.append(")");
+	}
 
 }
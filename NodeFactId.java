@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.util.BitSet;
+
 /**
  * Represents a variable reference node in the parse tree.
  *
@@ -6,15 +9,18 @@
 public class NodeFactId extends NodeFact {
 
 	private String id;
+	private int slot;
 
 	/**
 	 * Constructs a NodeFactId wsith the given source position and variable name
 	 * @param pos character position in the source code
 	 * @param id variable identifier
+	 * @param slot slot of the variable
 	 */
-	public NodeFactId(int pos, String id) {
+	public NodeFactId(int pos, String id, int slot) {
 		this.pos=pos;
 		this.id=id;
+		this.slot=slot;
 	}
 
 	/**
@@ -24,13 +30,41 @@ public class NodeFactId extends NodeFact {
 	 * @throws EvalException if variable is undefined
 	 */
 	public double eval(Environment env) throws EvalException {
-		return env.get(pos,id);
+		return env.get(pos,slot,id);
+	}
+
+	@Override
+	public void jvm(Jvm j) {
+		j.load(pos,slot,id);
+	}
+
+	@Override
+	public int vm(VmCompiler c, int dst) {
+		return c.load(pos,slot,id,dst);
+	}
+
+	@Override
+	void reads(BitSet slots) {
+		slots.set(slot);
+	}
+
+	@Override
+	boolean invariant(Hoist h) {
+		return !h.writes(slot);
+	}
+
+	@Override
+	void tac(Tac t) {
+		t.tag(Tac.ID);
+		t.pos(pos);
+		t.name(id);
 	}
 
 	/**
-	 * Generates C code for this variable
-	 * @return variable name as a string
+	 * Writes C code for this variable, its name
+	 * @param out where to write
+	 * @throws IOException if writing fails
 	 */
-	public String code() { return id; }
+	public void code(Appendable out) throws IOException { out.append(id); }
 
 }
@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.util.BitSet;
+
 /**
  * Represents a negated factor, such as -x or -(x+3).
  */
@@ -14,8 +17,64 @@ public class NodeFactNeg extends NodeFact {
         return -fact.eval(env);
     }
 
+    /**
+     * Folds the negation of a literal, unless it is not finite, as a
+     * literal too long for a double is: that has no literal in C.
+     * @return the negated literal, or this
+     */
+    @Override
+    public NodeFact fold() {
+        fact = fact.fold();
+        NodeFactNum num = fact.constant();
+        return num == null || !Double.isFinite(num.value()) ? this : new NodeFactNum(-num.value());
+    }
+
+    @Override
+    public Node quicken() {
+        return new Neg(fact.quicken());
+    }
+
+    private static class Neg extends Node {
+        private final Node fact;
+        Neg(Node fact) { this.fact = fact; }
+        public double eval(Environment env) throws EvalException { return -fact.eval(env); }
+    }
+
+    @Override
+    public void jvm(Jvm j) {
+        fact.jvm(j);
+        j.neg();
+    }
+
+    @Override
+    public int vm(VmCompiler c, int dst) {
+        return c.neg(dst, fact.vm(c, -1));
+    }
+
+    @Override
+    void reads(BitSet slots) {
+        fact.reads(slots);
+    }
+
+    @Override
+    boolean invariant(Hoist h) {
+        return fact.invariant(h);
+    }
+
+    @Override
+    void hoistInvariant(Hoist h) {
+        fact.hoistInvariant(h);
+    }
+
+    @Override
+    void tac(Tac t) {
+        t.tag(Tac.NEG);
+        fact.tac(t);
+    }
+
     @Override
-    public String code() {
-        return "-" + fact.code();
+    public void code(Appendable out) throws IOException {
+        out.append("-");
+        fact.code(out);
     }
 }
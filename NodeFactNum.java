@@ -1,11 +1,15 @@
+import java.io.IOException;
+
 /**
  * Represent a numeric literal node in the parse tree
  *
- * A NodeFactNum stores a number as a string and converts it to an integer during evaluation
+ * A NodeFactNum stores a number as a string, for code generation, and its value,
+ * which is converted once when the node is made rather than on every evaluation.
  */
 public class NodeFactNum extends NodeFact {
 
 	private String num;
+	private double value;
 
 	/**
 	 * Constructs a NodeFactNum with the given numeric literal
@@ -13,22 +17,80 @@ public class NodeFactNum extends NodeFact {
 	 */
 	public NodeFactNum(String num) {
 		this.num=num;
+		this.value=Double.parseDouble(num);
+	}
+
+	/**
+	 * Constructs a NodeFactNum for a computed value, such as a folded
+	 * constant. It must be finite, as C has no literal for anything else.
+	 * -0.0 is written as such, so that dividing by it still gives -inf.
+	 * @param value the number
+	 */
+	public NodeFactNum(double value) {
+		this.value=value;
+		long l=(long) value;
+		boolean negZero=Double.doubleToRawLongBits(value)==Double.doubleToRawLongBits(-0.0);
+		String s=negZero ? "-0.0" : l==value && Math.abs(value)<1e15 ? Long.toString(l) : Double.toString(value);
+		this.num=value<0 || negZero ? "("+s+")" : s;
+	}
+
+	/**
+	 * Constructs a NodeFactNum as it was written (see Tac), since a folded
+	 * constant's text cannot always be parsed back.
+	 * @param num the number in string form
+	 * @param value the number
+	 */
+	NodeFactNum(String num, double value) {
+		this.num=num;
+		this.value=value;
 	}
 
 	/**
-	 * Evaluates this factor by converting the stored string to an integer value
+	 * @return the value of this literal
+	 */
+	public double value() { return value; }
+
+	@Override
+	public NodeFactNum constant() { return this; }
+
+	/**
+	 * Evaluates this factor, which is just its value
 	 * @param env current environmnet (unused for literals)
 	 * @return the numeric value of this literal
-	 * @throws EvalException if parsing the number fails
 	 */
-	public double eval(Environment env) throws EvalException {
-		return Double.parseDouble(num);
+	public double eval(Environment env) {
+		return value;
+	}
+
+	@Override
+	public void jvm(Jvm j) {
+		j.constant(value);
+	}
+
+	@Override
+	public int vm(VmCompiler c, int dst) {
+		return c.constant(value,dst);
+	}
+
+	@Override
+	boolean invariant(Hoist h) {
+		return true;
+	}
+
+	@Override
+	void tac(Tac t) {
+		boolean exact=Double.doubleToRawLongBits(Tac.value(num))==Double.doubleToRawLongBits(value);
+		t.tag(exact ? Tac.NUM : Tac.CONST);
+		t.string(num);
+		if (!exact)
+			t.number(value);
 	}
 
 	/**
-	 * Generates C code for num literal
-	 * @return number as a string
+	 * Writes C code for num literal
+	 * @param out where to write
+	 * @throws IOException if writing fails
 	 */
-	public String code() { return num; }
+	public void code(Appendable out) throws IOException { out.append(num); }
 
 }
@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.util.BitSet;
+
 public class NodeIf extends Node {
     private NodeBoolExpr boolExpr;
     private NodeStmt thenStmt, elseStmt;
@@ -17,10 +20,160 @@ public class NodeIf extends Node {
         return 0;
     }
 
-    public String code() {
-        String c = "if " + boolExpr.code() + " " + thenStmt.code();
+    @Override
+    public NodeIf fold() {
+        boolExpr.fold();
+        thenStmt = thenStmt.fold();
+        if (elseStmt != null)
+            elseStmt = elseStmt.fold();
+        return this;
+    }
+
+    /**
+     * @return the condition, once folded, as a literal, or null if it is not one
+     */
+    public NodeFactNum constant() {
+        return boolExpr.constant();
+    }
+
+    /**
+     * @param cond whether the condition holds
+     * @return the statement that runs then, or null if none does
+     */
+    public NodeStmt branch(boolean cond) {
+        return cond ? thenStmt : elseStmt;
+    }
+
+    @Override
+    public Node quicken() {
+        Node cond = boolExpr.quicken(), then = thenStmt.quicken();
+        if (elseStmt == null)
+            return new Then(cond, then);
+        return new ThenElse(cond, then, elseStmt.quicken());
+    }
+
+    private static class Then extends Node {
+        private final Node cond, then;
+        Then(Node cond, Node then) { this.cond = cond; this.then = then; }
+        public double eval(Environment env) throws EvalException {
+            return cond.eval(env) != 0 ? then.eval(env) : 0;
+        }
+    }
+
+    private static class ThenElse extends Node {
+        private final Node cond, then, otherwise;
+        ThenElse(Node cond, Node then, Node otherwise) {
+            this.cond = cond;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+        public double eval(Environment env) throws EvalException {
+            return cond.eval(env) != 0 ? then.eval(env) : otherwise.eval(env);
+        }
+    }
+
+    @Override
+    public void jvm(Jvm j) {
+        Jvm.Label otherwise = j.label();
+        boolExpr.jvmUnless(j, otherwise);
+        thenStmt.jvm(j);
+        if (elseStmt == null) {
+            j.place(otherwise);
+            return;
+        }
+        Jvm.Label done = j.label();
+        j.jump(done);
+        j.place(otherwise);
+        elseStmt.jvm(j);
+        j.place(done);
+    }
+
+    @Override
+    public int vm(VmCompiler c, int dst) {
+        VmCompiler.Label otherwise = c.label();
+        boolExpr.vmUnless(c, otherwise);
+        BitSet known = c.known();
+        thenStmt.vm(c, -1);
+        if (elseStmt == null) {
+            c.place(otherwise);
+            c.restore(known);
+            return -1;
+        }
+        VmCompiler.Label done = c.label();
+        c.jump(done);
+        c.place(otherwise);
+        BitSet then = c.known();
+        c.restore(known);
+        elseStmt.vm(c, -1);
+        c.place(done);
+        c.merge(then);
+        return -1;
+    }
+
+    @Override
+    void writes(BitSet slots) {
+        thenStmt.writes(slots);
+        if (elseStmt != null)
+            elseStmt.writes(slots);
+    }
+
+    @Override
+    void reads(BitSet slots) {
+        boolExpr.reads(slots);
+        thenStmt.reads(slots);
+        if (elseStmt != null)
+            elseStmt.reads(slots);
+    }
+
+    @Override
+    void define(BitSet defined, Liveness l) {
+        boolExpr.define(defined, l);
+        BitSet then = (BitSet) defined.clone();
+        thenStmt.define(then, l);
+        if (elseStmt == null)
+            return;
+        elseStmt.define(defined, l);
+        defined.and(then);
+    }
+
+    @Override
+    void live(BitSet live, Liveness l) {
+        BitSet otherwise = (BitSet) live.clone();
+        thenStmt.live(live, l);
         if (elseStmt != null)
-            c += " else " + elseStmt.code();
-        return c;
+            elseStmt.live(otherwise, l);
+        live.or(otherwise);
+        boolExpr.reads(live);
+        l.before(boolExpr, live);
+    }
+
+    @Override
+    void hoist(Hoist h) {
+        boolExpr.hoist(h);
+        thenStmt.hoist(h);
+        if (elseStmt != null)
+            elseStmt.hoist(h);
+    }
+
+    @Override
+    void tac(Tac t) {
+        boolExpr.tac(t);
+        thenStmt.tac(t);
+        t.count(elseStmt == null ? 0 : 1);
+        if (elseStmt != null)
+            elseStmt.tac(t);
+    }
+
+    public void code(Appendable out) throws IOException {
+        out.append("if ");
+        boolExpr.code(out);
+        out.append(" {\n");
+        thenStmt.code(out);
+        out.append("}\n");
+        if (elseStmt != null) {
+            out.append("else {\n");
+            elseStmt.code(out);
+            out.append("}\n");
+        }
     }
 }
@@ -1,3 +1,5 @@
+import java.io.IOException;
+
 /**
  * Represents a multiplication or division operator node in the parse tree.
  *
@@ -7,6 +9,7 @@
 public class NodeMulop extends Node {
 
 	private String mulop;
+	private char kind;	// first char of mulop, so op() need not compare Strings
 
 	/**
 	 * Constructs a NodeMulop with the given source position and operator.
@@ -16,6 +19,7 @@ public class NodeMulop extends Node {
 	public NodeMulop(int pos, String mulop) {
 		this.pos=pos;
 		this.mulop=mulop;
+		this.kind=mulop.length()==1 ? mulop.charAt(0) : '?';
 	}
 
 	/**
@@ -26,17 +30,66 @@ public class NodeMulop extends Node {
 	 * @throws EvalException if opp invalid or div by zero
 	 */
 	public double op(double o1, double o2) throws EvalException {
-		if (mulop.equals("*"))
-			return o1*o2;
-		if (mulop.equals("/"))
-			return o1/o2;
+		switch (kind) {
+		case '*': return o1*o2;
+		case '/': return o1/o2;
+		}
 		throw new EvalException(pos,"bogus mulop: "+mulop);
 	}
 
 	/**
-	 *  Returns the operator symbol as C source code.
-	 * @return the '*' or '/' character as a string
+	 * Makes the node that eval() runs for this operator applied to two
+	 * operands (see Node.quicken()).
+	 * @param l left hand opp, specialized
+	 * @param r right hand opp, specialized
+	 * @return a multiply or divide node, or null if the operator is bogus
+	 */
+	public Node quicken(Node l, Node r) {
+		switch (kind) {
+		case '*': return new Mul(l,r);
+		case '/': return new Div(l,r);
+		default: return null;
+		}
+	}
+
+	private static class Mul extends Node {
+		private final Node l, r;
+		Mul(Node l, Node r) { this.l=l; this.r=r; }
+		public double eval(Environment env) throws EvalException { return l.eval(env)*r.eval(env); }
+	}
+
+	private static class Div extends Node {
+		private final Node l, r;
+		Div(Node l, Node r) { this.l=l; this.r=r; }
+		public double eval(Environment env) throws EvalException { return l.eval(env)/r.eval(env); }
+	}
+
+	@Override
+	public void jvm(Jvm j) { j.arith(mulop); }
+
+	/**
+	 * Compiles this operator for the Vm, given its compiled left operand.
+	 * @param c instructions being emitted
+	 * @param dst register for the result, or -1 for any
+	 * @param left register holding the left hand opp
+	 * @param right right hand opp
+	 * @return register holding the result
+	 */
+	public int vm(VmCompiler c, int dst, int left, Node right) {
+		return c.arith(mulop,dst,left,right);
+	}
+
+	@Override
+	void tac(Tac t) {
+		t.pos(pos);
+		t.string(mulop);
+	}
+
+	/**
+	 *  Writes the operator symbol as C source code.
+	 * @param out where to write
+	 * @throws IOException if writing fails
 	 */
-	public String code() { return mulop; }
+	public void code(Appendable out) throws IOException { out.append(mulop); }
 
 }
@@ -1,19 +1,70 @@
+import java.io.IOException;
+import java.util.BitSet;
+
 /**
  * Root node for an entire program.
  */
 public class NodeProg extends Node {
 
     private NodeBlock block;
+    // the block specialized for eval(), made the first time it runs; volatile,
+    // since a tree may be evaluated by several threads at once (see ParseCache)
+    private volatile Node run;
 
     public NodeProg(NodeBlock block) {
         this.block = block;
     }
 
     public double eval(Environment env) throws EvalException {
-        return block.eval(env);
+        Node r = run;
+        if (r == null)
+            run = r = block.quicken();
+        return r.eval(env);
+    }
+
+    /**
+     * Folds the program, then removes its dead assignments (see Liveness).
+     * @return this program
+     */
+    @Override
+    public NodeProg fold() {
+        block.fold();
+        Liveness.prune(block);
+        run = null;
+        return this;
+    }
+
+    @Override
+    public Node quicken() {
+        return block.quicken();
+    }
+
+    @Override
+    public void jvm(Jvm j) {
+        block.jvmMethods(j);
+    }
+
+    @Override
+    public int vm(VmCompiler c, int dst) {
+        return block.vm(c, -1);
+    }
+
+    @Override
+    void tac(Tac t) {
+        block.tac(t);
+    }
+
+    @Override
+    void writes(BitSet slots) {
+        block.writes(slots);
+    }
+
+    @Override
+    void reads(BitSet slots) {
+        block.reads(slots);
     }
 
-    public String code() {
-        return block.code();
+    public void code(Appendable out) throws IOException {
+        block.code(out);
     }
 }
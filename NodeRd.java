@@ -1,20 +1,70 @@
+import java.io.IOException;
+import java.util.BitSet;
+
 public class NodeRd extends Node {
 
     private String id;
+    private int slot;
 
-    public NodeRd(String id) {
+    public NodeRd(String id, int slot) {
         this.id = id;
+        this.slot = slot;
     }
 
     public double eval(Environment env) throws EvalException {
-        java.util.Scanner input = new java.util.Scanner(System.in);
-        System.out.print(id + " = ");
-        double val = input.nextDouble();
-        env.put(id, val);
-        return val;
+        return env.put(slot, id, read(env, id));
+    }
+
+    /**
+     * Prompts for, unless prompts are off, and reads the value of a variable.
+     * Output is flushed first, so the prompt and what came before it are seen.
+     * @param env current run time environment
+     * @param id variable name
+     * @return the value read
+     */
+    public static double read(Environment env, String id) {
+        if (env.in().prompt()) {
+            env.out().print(id + " = ");
+            env.out().flush();
+        }
+        return env.in().readDouble();
+    }
+
+    @Override
+    public void jvm(Jvm j) {
+        j.read(id);
+        j.store(slot, id);
+    }
+
+    @Override
+    public int vm(VmCompiler c, int dst) {
+        c.read(slot, id);
+        return -1;
+    }
+
+    @Override
+    void writes(BitSet slots) {
+        slots.set(slot);
+    }
+
+    @Override
+    void define(BitSet defined, Liveness l) {
+        l.fail(this);  // at the end of the input
+        defined.set(slot);
+    }
+
+    @Override
+    void live(BitSet live, Liveness l) {
+        live.clear(slot);
+        l.before(this, live);
+    }
+
+    @Override
+    void tac(Tac t) {
+        t.name(id);
     }
 
-    public String code() {
-        return "scanf(\"%lf\", &" + id + ");";
+    public void code(Appendable out) throws IOException {
+        out.append("scanf(\"%lf\", &").append(id).append(");\n");
     }
 }
@@ -1,8 +1,11 @@
+import java.io.IOException;
+import java.util.BitSet;
+
 /**
  * Represents a statement node in the parse tree.
  *
- * A NodeStmt wraps an assignment statement and delegates
- * evaluation and code generation to its contained NodeAssn.
+ * A NodeStmt wraps one kind of statement (assignment, rd, wr, while, if
+ * or a begin-end block) and delegates evaluation and code generation to it.
  */
 public class NodeStmt extends Node {
 
@@ -11,37 +14,49 @@ public class NodeStmt extends Node {
 	private NodeWr wr;
 	private NodeWhile whileNode;
 	private NodeIf ifNode;
+	private NodeBlock block;
 
 	/**
 	 * Constructs a NodeStmt with the given assignment node.
 	 * 
+	 * @param pos character position of the statement in the source code
 	 * @param assn the assignment node representing the statement
 	 */
-	public NodeStmt(NodeAssn assn) {
+	public NodeStmt(int pos, NodeAssn assn) {
+		this.pos = pos;
 		this.assn = assn;
 	}
 
-	public NodeStmt(NodeRd rd) {
+	public NodeStmt(int pos, NodeRd rd) {
+		this.pos = pos;
 		this.rd = rd;
 	}
 
-	public NodeStmt(NodeWr wr) {
+	public NodeStmt(int pos, NodeWr wr) {
+		this.pos = pos;
 		this.wr = wr;
 	}
 
-	public NodeStmt(NodeWhile whileNode) {
+	public NodeStmt(int pos, NodeWhile whileNode) {
+		this.pos = pos;
 		this.whileNode = whileNode;
 	}
 
-	public NodeStmt(NodeIf ifNode) {
+	public NodeStmt(int pos, NodeIf ifNode) {
+		this.pos = pos;
 		this.ifNode = ifNode;
 	}
 
+	public NodeStmt(int pos, NodeBlock block) {
+		this.pos = pos;
+		this.block = block;
+	}
+
 	/**
-	 * Evaluates this statement by evaluating its contained assignment.
+	 * Evaluates this statement by evaluating its contained statement.
 	 * 
 	 * @param env the current environment containing variable bindings
-	 * @return the value produced by the assignment
+	 * @return the value produced by the statement
 	 * @throws EvalException if an error occurs
 	 */
 	public double eval(Environment env) throws EvalException {
@@ -51,22 +66,238 @@ public class NodeStmt extends Node {
 			return rd.eval(env);
 		if (wr != null)
 			return wr.eval(env);
+		if (whileNode != null)
+			return whileNode.eval(env);
+		if (ifNode != null)
+			return ifNode.eval(env);
+		if (block != null)
+			return block.eval(env);
 		throw new EvalException(0, "invalid statement");
 	}
 
 	/**
-	 * Generates equivalent C code for this statement.
+	 * Folds the contained statement.
 	 * 
-	 * @return string of C code representing the statement
+	 * @return this statement
 	 */
-	public String code() {
+	@Override
+	public NodeStmt fold() {
 		if (assn != null)
-			return assn.code();
+			assn.fold();
+		if (wr != null)
+			wr.fold();
+		if (whileNode != null) {
+			NodeFactNum cond = whileNode.fold().constant();
+			if (cond != null && cond.value() == 0)
+				return nothing();
+		}
+		if (ifNode != null) {
+			NodeFactNum cond = ifNode.fold().constant();
+			if (cond != null) {
+				NodeStmt taken = ifNode.branch(cond.value() != 0);
+				return taken != null ? taken : nothing();
+			}
+		}
+		if (block != null)
+			block.fold();
+		return this;
+	}
+
+	/** @return a statement that does nothing, in place of this one */
+	private NodeStmt nothing() {
+		return new NodeStmt(pos, new NodeBlock());
+	}
+
+	/**
+	 * @return whether this statement is a while loop
+	 */
+	public boolean loop() {
+		return whileNode != null;
+	}
+
+	/**
+	 * @return whether this statement does nothing, as folding found
+	 */
+	public boolean empty() {
+		return block != null && block.empty();
+	}
+
+	/**
+	 * Specializes the contained statement for eval(); this wrapper disappears.
+	 * 
+	 * @return the specialized statement
+	 */
+	@Override
+	public Node quicken() {
+		Node run = quickenStmt();
+		Profile profile = Profile.active();
+		return profile == null ? run : profile.statement(this, run);
+	}
+
+	/** @return the contained statement, quickened */
+	private Node quickenStmt() {
+		if (assn != null)
+			return assn.quicken();
 		if (rd != null)
-			return rd.code();
+			return rd.quicken();
 		if (wr != null)
-			return wr.code();
-		return "";
+			return wr.quicken();
+		if (whileNode != null)
+			return whileNode.quicken();
+		if (ifNode != null)
+			return ifNode.quicken();
+		if (block != null)
+			return block.quicken();
+		return this;
+	}
+
+	/**
+	 * Emits the bytecode of the contained statement.
+	 * 
+	 * @param j bytecode being emitted
+	 */
+	@Override
+	public void jvm(Jvm j) {
+		if (assn != null)
+			assn.jvm(j);
+		else if (rd != null)
+			rd.jvm(j);
+		else if (wr != null)
+			wr.jvm(j);
+		else if (whileNode != null)
+			whileNode.jvm(j);
+		else if (ifNode != null)
+			ifNode.jvm(j);
+		else if (block != null)
+			block.jvm(j);
+		else
+			super.jvm(j);
+	}
+
+	/**
+	 * Compiles the contained statement for the Vm.
+	 * 
+	 * @param c instructions being emitted
+	 * @param dst unused
+	 * @return -1
+	 */
+	@Override
+	public int vm(VmCompiler c, int dst) {
+		if (assn != null)
+			return assn.vm(c, -1);
+		if (rd != null)
+			return rd.vm(c, -1);
+		if (wr != null)
+			return wr.vm(c, -1);
+		if (whileNode != null)
+			return whileNode.vm(c, -1);
+		if (ifNode != null)
+			return ifNode.vm(c, -1);
+		if (block != null)
+			return block.vm(c, -1);
+		return super.vm(c, dst);
+	}
+
+	@Override
+	void tac(Tac t) {
+		if (assn != null) {
+			t.tag(Tac.ASSN);
+			t.pos(pos);
+			assn.tac(t);
+		} else if (rd != null) {
+			t.tag(Tac.RD);
+			t.pos(pos);
+			rd.tac(t);
+		} else if (wr != null) {
+			t.tag(Tac.WR);
+			t.pos(pos);
+			wr.tac(t);
+		} else if (whileNode != null) {
+			t.tag(Tac.WHILE);
+			t.pos(pos);
+			whileNode.tac(t);
+		} else if (ifNode != null) {
+			t.tag(Tac.IF);
+			t.pos(pos);
+			ifNode.tac(t);
+		} else if (block != null) {
+			t.tag(Tac.BLOCK);
+			t.pos(pos);
+			block.tac(t);
+		}
+	}
+
+	@Override
+	void writes(BitSet slots) {
+		stmt().writes(slots);
+	}
+
+	@Override
+	void hoist(Hoist h) {
+		stmt().hoist(h);
+	}
+
+	@Override
+	void reads(BitSet slots) {
+		stmt().reads(slots);
+	}
+
+	@Override
+	void define(BitSet defined, Liveness l) {
+		stmt().define(defined, l);
+	}
+
+	/**
+	 * Turns an assignment no one reads into a wr of its expression, so
+	 * that it still prints (see Liveness).
+	 */
+	@Override
+	void live(BitSet live, Liveness l) {
+		NodeWr dead = assn == null ? null : assn.dead(live);
+		stmt().live(live, l);
+		if (dead != null) {
+			wr = dead;
+			assn = null;
+		}
+	}
+
+	/** @return the contained statement */
+	private Node stmt() {
+		if (assn != null)
+			return assn;
+		if (rd != null)
+			return rd;
+		if (wr != null)
+			return wr;
+		if (whileNode != null)
+			return whileNode;
+		if (ifNode != null)
+			return ifNode;
+		return block;
+	}
+
+	/**
+	 * Writes equivalent C code for this statement.
+	 * 
+	 * @param out where to write
+	 * @throws IOException if writing fails
+	 */
+	public void code(Appendable out) throws IOException {
+		if (assn != null)
+			assn.code(out);
+		else if (rd != null)
+			rd.code(out);
+		else if (wr != null)
+			wr.code(out);
+		else if (whileNode != null)
+			whileNode.code(out);
+		else if (ifNode != null)
+			ifNode.code(out);
+		else if (block != null) {
+			out.append("{\n");
+			block.code(out);
+			out.append("}\n");
+		}
 	}
 
 }
@@ -1,61 +1,271 @@
 /**
  * Represents a term node in the parse tree.
  *
- * A NodeTerm stores one factor, an optional multiplication or division operator,
- * and an optional following term. It supports both evaluation and code generation.
+ * A NodeTerm stores its first factor followed by any number of multiplication
+ * or division operators and factors, which are applied from left to right.
+ * It supports both evaluation and code generation.
  */
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
 public class NodeTerm extends Node {
 
 	private NodeFact fact;
-	private NodeMulop mulop;
-	private NodeTerm term;
+	// shared empty lists until something is appended, since most have nothing
+	private List<NodeMulop> mulops=Collections.emptyList();
+	private List<NodeFact> facts=Collections.emptyList();
 
 	/**
-	 * Constructs a NodeTerm with a factor, an optional operator, and an optional term.
+	 * Constructs a NodeTerm with a single factor.
 	 *
 	 * @param fact factor of this term
-	 * @param mulop Multiplication or division opp (can be null)
-	 * @param term the next term in the sequence (can be null)
 	 */
-	public NodeTerm(NodeFact fact, NodeMulop mulop, NodeTerm term) {
+	public NodeTerm(NodeFact fact) {
 		this.fact=fact;
-		this.mulop=mulop;
-		this.term=term;
 	}
 
 	/**
-	 * Appends another term to this one, forming a recursive chain of terms.
-	 * @param term another NodeTerm to append
+	 * Appends another operator and factor to the right end of this term.
+	 * @param mulop Multiplication or division opp
+	 * @param fact the right operand
+	 */
+	public void append(NodeMulop mulop, NodeFact fact) {
+		if (mulops.isEmpty()) {
+			mulops=new ArrayList<>();
+			facts=new ArrayList<>();
+		}
+		mulops.add(mulop);
+		facts.add(fact);
+	}
+
+	/**
+	 * @return this term as a literal, or null if it is not just one
 	 */
-	public void append(NodeTerm term) {
-		if (this.term==null) {
-			this.mulop=term.mulop;
-			this.term=term;
-			term.mulop=null;
-		} else
-			this.term.append(term);
+	public NodeFactNum constant() {
+		return facts.isEmpty() ? fact.constant() : null;
 	}
 
 	/**
-	 * Evaluates this term recursively.
+	 * Folds the factors, then the longest run of literals at the left end.
+	 * Only a prefix can be folded, since reordering would change the result.
+	 * A run is not folded past an operation that does not give a finite
+	 * number, which is left to fail or overflow at run time.
+	 * @return this term
+	 */
+	@Override
+	public NodeTerm fold() {
+		fact=fact.fold();
+		for (int i=0; i<facts.size(); i++)
+			facts.set(i,facts.get(i).fold());
+		NodeFactNum num=fact.constant();
+		if (num==null)
+			return this;
+		double result=num.value();
+		int n=0;
+		for (; n<facts.size() && facts.get(n).constant()!=null; n++) {
+			double r;
+			try {
+				r=mulops.get(n).op(result,facts.get(n).constant().value());
+			} catch (EvalException e) {
+				break;
+			}
+			if (!Double.isFinite(r))
+				break;
+			result=r;
+		}
+		if (n>0) {
+			fact=new NodeFactNum(result);
+			mulops.subList(0,n).clear();
+			facts.subList(0,n).clear();
+		}
+		return this;
+	}
+
+	/**
+	 * Evaluates this term from left to right.
 	 * If there is no operator, returns the value of the factor.
-	 * Otherwise, applies the operator to the subterms.
+	 * Otherwise, applies each operator to the value so far and the next factor.
 	 * @param env the current environment containing variable values
 	 * @return the numeric result of evaluating the term
 	 * @throws EvalException if an error occurs during evaluation
 	 */
 	public double eval(Environment env) throws EvalException {
-		return term==null
-			? fact.eval(env)
-			: mulop.op(term.eval(env),fact.eval(env));
+		double result=fact.eval(env);
+		for (int i=0; i<facts.size(); i++)
+			result=mulops.get(i).op(result,facts.get(i).eval(env));
+		return result;
+	}
+
+	/**
+	 * Specializes this term for eval() into a tree of binary operator
+	 * nodes, or just its fact if it has no operator. A long chain becomes
+	 * one node that loops instead, so running it does not recurse once
+	 * per operator.
+	 * @return the specialized node
+	 */
+	@Override
+	public Node quicken() {
+		Hoist.Temp temp=Hoist.temp(this);
+		if (temp!=null)
+			return quicken(temp.use(),temp.ops(),facts.size());
+		return quicken(fact.quicken(),0,facts.size());
+	}
+
+	@Override
+	Node quicken(int ops) {
+		return quicken(fact.quicken(),0,ops);
 	}
 
 	/**
-	 * Generates equivalent C code for this term.
-	 * @return string of C source code
+	 * @param first the value so far, specialized
+	 * @param from index of the first operator to apply to it
+	 * @param to index past the last
+	 * @return first, with the operators from..to applied, specialized
 	 */
-	public String code() {
-		return (term==null ? "" : term.code()+mulop.code())+fact.code();
+	private Node quicken(Node first, int from, int to) {
+		if (from==to)
+			return first;
+		Node[] rest=new Node[to-from];
+		for (int i=0; i<rest.length; i++)
+			rest[i]=facts.get(from+i).quicken();
+		if (rest.length<=CHAIN) {
+			Node result=first;
+			for (int i=0; i<rest.length && result!=null; i++)
+				result=mulops.get(from+i).quicken(result,rest[i]);
+			if (result!=null)
+				return result;
+		}
+		return new Chain(first,mulops.subList(from,to).toArray(new NodeMulop[0]),rest);
+	}
+
+	private static class Chain extends Node {
+		private final Node first;
+		private final NodeMulop[] ops;
+		private final Node[] rest;
+		Chain(Node first, NodeMulop[] ops, Node[] rest) {
+			this.first=first;
+			this.ops=ops;
+			this.rest=rest;
+		}
+		public double eval(Environment env) throws EvalException {
+			double d=first.eval(env);
+			for (int i=0; i<rest.length; i++)
+				d=ops[i].op(d,rest[i].eval(env));
+			return d;
+		}
+	}
+
+	/**
+	 * Hoists the longest invariant prefix of this term that has an
+	 * operator, since only a prefix has the same value computed apart, then
+	 * each invariant factor after it, unless all of it is invariant.
+	 */
+	@Override
+	boolean invariant(Hoist h) {
+		boolean head=fact.invariant(h), prefix=head;
+		int n=0;	// operators in the prefix
+		for (int i=0; i<facts.size(); i++)
+			if (!facts.get(i).invariant(h))
+				prefix=false;
+			else if (prefix)
+				n++;
+			else
+				facts.get(i).hoistInvariant(h);
+		if (prefix)
+			return true;
+		if (n>0)
+			h.add(this,n);
+		else if (head)
+			fact.hoistInvariant(h);
+		return false;
+	}
+
+	@Override
+	void reads(BitSet slots) {
+		fact.reads(slots);
+		for (int i=0; i<facts.size(); i++)
+			facts.get(i).reads(slots);
+	}
+
+	@Override
+	void hoistInvariant(Hoist h) {
+		if (facts.isEmpty())
+			fact.hoistInvariant(h);
+		else
+			h.add(this,facts.size());
+	}
+
+	/**
+	 * Emits the facts, each followed by its operator, so that they are
+	 * applied from left to right.
+	 * @param j bytecode being emitted
+	 */
+	@Override
+	public void jvm(Jvm j) {
+		fact.jvm(j);
+		for (int i=0; i<facts.size(); i++) {
+			facts.get(i).jvm(j);
+			mulops.get(i).jvm(j);
+		}
+	}
+
+	/**
+	 * Compiles the facts from left to right. Only the last operator
+	 * writes to dst, so the facts may still read what it held.
+	 * @param c instructions being emitted
+	 * @param dst register for the value, or -1 for any
+	 * @return register holding the value
+	 */
+	@Override
+	public int vm(VmCompiler c, int dst) {
+		if (facts.isEmpty())
+			return fact.vm(c,dst);
+		int r=fact.vm(c,-1);
+		for (int i=0; i<facts.size(); i++)
+			r=mulops.get(i).vm(c,i==facts.size()-1 ? dst : -1,r,facts.get(i));
+		return r;
+	}
+
+	@Override
+	void tac(Tac t) {
+		fact.tac(t);
+		t.count(facts.size());
+		for (int i=0; i<facts.size(); i++) {
+			mulops.get(i).tac(t);
+			facts.get(i).tac(t);
+		}
+	}
+
+	/**
+	 * Writes equivalent C code for this term.
+	 * @param out where to write
+	 * @throws IOException if writing fails
+	 */
+	public void code(Appendable out) throws IOException {
+		Hoist.Temp temp=Hoist.temp(this);
+		if (temp==null)
+			code(out,facts.size());
+		else {
+			out.append(temp.name());
+			code(out,temp.ops(),facts.size());
+		}
+	}
+
+	@Override
+	void code(Appendable out, int ops) throws IOException {
+		fact.code(out);
+		code(out,0,ops);
+	}
+
+	/** Writes the C code for the operators from..to, and their operands. */
+	private void code(Appendable out, int from, int to) throws IOException {
+		for (int i=from; i<to; i++) {
+			mulops.get(i).code(out);
+			facts.get(i).code(out);
+		}
 	}
 
 }
@@ -1,8 +1,13 @@
+import java.io.IOException;
+import java.util.BitSet;
+
 public class NodeWhile extends Node {
     private NodeBoolExpr boolExpr;
     private NodeStmt stmt;
+    private volatile BitSet writes;  // slots the loop assigns, found when first needed
 
-    public NodeWhile(NodeBoolExpr boolExpr, NodeStmt stmt) {
+    public NodeWhile(int pos, NodeBoolExpr boolExpr, NodeStmt stmt) {
+        this.pos = pos;
         this.boolExpr = boolExpr;
         this.stmt = stmt;
     }
@@ -14,7 +19,153 @@ public class NodeWhile extends Node {
         return result;
     }
 
-    public String code() {
-        return "while " + boolExpr.code() + " " + stmt.code();
+    @Override
+    public NodeWhile fold() {
+        boolExpr.fold();
+        stmt = stmt.fold();
+        return this;
+    }
+
+    /**
+     * @return the condition, once folded, as a literal, or null if it is not one
+     */
+    public NodeFactNum constant() {
+        return boolExpr.constant();
+    }
+
+    /**
+     * Specializes this loop for eval(), computing its invariant
+     * expressions once, before it starts (see Hoist).
+     * @return the specialized node
+     */
+    @Override
+    public Node quicken() {
+        Hoist hoist = Hoist.enter(this);
+        try {
+            Node cond = boolExpr.quicken(), body = stmt.quicken();
+            Profile profile = Profile.active();
+            return hoist.quicken(profile == null ? new Loop(cond, body) : profile.loop(pos, cond, body));
+        } finally {
+            hoist.exit();
+        }
+    }
+
+    private static class Loop extends Node {
+        private final Node cond, body;
+        Loop(Node cond, Node body) { this.cond = cond; this.body = body; }
+        public double eval(Environment env) throws EvalException {
+            double result = 0;
+            while (cond.eval(env) != 0)
+                result = body.eval(env);
+            return result;
+        }
+    }
+
+    @Override
+    public void jvm(Jvm j) {
+        Jvm.Label top = j.label(), done = j.label();
+        j.place(top);
+        boolExpr.jvmUnless(j, done);
+        stmt.jvm(j);
+        j.jump(top);
+        j.place(done);
+    }
+
+    @Override
+    public int vm(VmCompiler c, int dst) {
+        VmCompiler.Label top = c.label(), done = c.label();
+        c.place(top);
+        boolExpr.vmUnless(c, done);
+        BitSet known = c.known();  // the body may not run
+        stmt.vm(c, -1);
+        c.jump(top);
+        c.place(done);
+        c.restore(known);
+        return -1;
+    }
+
+    /**
+     * @return the slots of the variables this loop assigns
+     */
+    BitSet writes() {
+        BitSet w = writes;
+        if (w == null) {
+            w = new BitSet();
+            stmt.writes(w);
+            writes = w;
+        }
+        return w;
+    }
+
+    @Override
+    void writes(BitSet slots) {
+        slots.or(writes());
+    }
+
+    @Override
+    void reads(BitSet slots) {
+        boolExpr.reads(slots);
+        stmt.reads(slots);
+    }
+
+    /**
+     * Notes the loop as failing if its condition or body may. The body is
+     * checked with what is defined as the loop starts, which is no more
+     * than is defined each time round.
+     */
+    @Override
+    void define(BitSet defined, Liveness l) {
+        int failures = l.failures();
+        boolExpr.define(defined, l);
+        stmt.define((BitSet) defined.clone(), l);
+        if (l.failures() > failures)
+            l.fail(this);
+    }
+
+    /**
+     * Takes every variable read in the loop to be live all through it,
+     * besides those live after it, rather than iterating to a fixed point.
+     */
+    @Override
+    void live(BitSet live, Liveness l) {
+        reads(live);
+        l.before(this, live);
+        BitSet body = (BitSet) live.clone();
+        stmt.live(body, l);
+        live.or(body);
+        writes = null;  // assignments in the body may be gone
+    }
+
+    @Override
+    void hoist(Hoist h) {
+        boolExpr.hoist(h);
+        stmt.hoist(h);
+    }
+
+    @Override
+    void tac(Tac t) {
+        boolExpr.tac(t);
+        stmt.tac(t);
+    }
+
+    /**
+     * Writes the C code for this loop, in a block that computes its
+     * invariant expressions first, if it has any (see Hoist).
+     * @param out where to write
+     * @throws IOException if writing fails
+     */
+    public void code(Appendable out) throws IOException {
+        Hoist hoist = Hoist.enter(this);
+        try {
+            hoist.declare(out);
+            out.append("while ");
+            boolExpr.code(out);
+            out.append(" {\n");
+            stmt.code(out);
+            out.append("}\n");
+            hoist.end(out);
+        } finally {
+            hoist.exit();
+        }
     }
 }
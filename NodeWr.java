@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.util.BitSet;
+
 /**
  * Represents a write (output) node in the parse tree.
  * This node is used
@@ -25,24 +28,86 @@ public class NodeWr extends Node {
 	 * @throws EvalException
 	 */
 	public double eval(Environment env) throws EvalException {
-		double d=expr.eval(env);
-		int i=(int) d;
-		if (i==d)
-			System.out.println(i);
-		else
-			System.out.println(d);
+		return print(expr.eval(env),env);
+	}
+
+	/**
+	 * Prints a value to the environment's output, as an integer if it is one.
+	 * @param d the value
+	 * @param env current run time environment
+	 * @return d
+	 */
+	public static double print(double d, Environment env) {
+		env.out().print(d);
 		return d;
 	}
 
+	@Override
+	public Node quicken() {
+		return new Print(expr.quicken());
+	}
+
+	private static class Print extends Node {
+		private final Node expr;
+		Print(Node expr) { this.expr=expr; }
+		public double eval(Environment env) throws EvalException { return print(expr.eval(env),env); }
+	}
+
+	@Override
+	public void jvm(Jvm j) {
+		expr.jvm(j);
+		j.print();
+		j.pop();
+	}
+
+	@Override
+	public int vm(VmCompiler c, int dst) {
+		c.print(expr.vm(c,-1));
+		return -1;
+	}
+
+	@Override
+	public NodeWr fold() {
+		expr=expr.fold();
+		return this;
+	}
+
+	@Override
+	void reads(BitSet slots) {
+		expr.reads(slots);
+	}
+
+	@Override
+	void define(BitSet defined, Liveness l) {
+		l.check(this,expr,defined);
+	}
+
+	@Override
+	void live(BitSet live, Liveness l) {
+		expr.reads(live);
+		l.before(this,live);
+	}
+
+	@Override
+	void hoist(Hoist h) {
+		h.expr(expr);
+	}
+
+	@Override
+	void tac(Tac t) {
+		expr.tac(t);
+	}
+
 	/**
-	 * Generates equivalent C code to print the expression’s value.
-	 * @return string of C code using printf
+	 * Writes equivalent C code to print the expression’s value.
+	 * @param out where to write
+	 * @throws IOException if writing fails
 	 */
-	public String code() {
-		return "printf(\"%g\\n\","
-			+"(double)("
-			+expr.code()
-			+"));";
+	public void code(Appendable out) throws IOException {
+		out.append("printf(\"%g\\n\",")
+			.append("(double)(");
+		expr.code(out);
+		out.append("));\n");
 	}
 
 }
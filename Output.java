@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Output is where programs print: a large byte buffer in front of a stream,
+ * flushed when it fills, before rd prompts, and when a program ends.
+ *
+ * Numbers are printed as NodeWr always has, an integer if the value is one,
+ * else as println(double) would, without making a String for each.
+ */
+public class Output {
+
+	private static final byte[] NEWLINE=System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+	private OutputStream out;
+	private byte[] buf;
+	private int len;
+	private StringBuilder digits=new StringBuilder(32);	// reused to format doubles
+
+	/**
+	 * Constructs an Output with a 64k buffer.
+	 * @param out where to write
+	 */
+	public Output(OutputStream out) {
+		this(out,1<<16);
+	}
+
+	/**
+	 * @param out where to write
+	 * @param size buffer size
+	 */
+	public Output(OutputStream out, int size) {
+		this.out=out;
+		this.buf=new byte[Math.max(size,64)];
+	}
+
+	/**
+	 * Prints a value and a newline, as an integer if it is one.
+	 * @param d the value
+	 */
+	public void print(double d) {
+		if (buf.length-len<64)
+			drain();
+		int i=(int) d;
+		if (i==d)
+			digits(i);
+		else {
+			digits.setLength(0);
+			digits.append(d);	// the same text as Double.toString(d)
+			for (int k=0; k<digits.length(); k++)
+				buf[len++]=(byte) digits.charAt(k);
+		}
+		for (byte b: NEWLINE)
+			buf[len++]=b;
+	}
+
+	/** appends an int, which fits since print() made room */
+	private void digits(int i) {
+		long n=i;
+		if (n<0) {
+			buf[len++]='-';
+			n=-n;
+		}
+		int count=1;
+		for (long t=n; t>=10; t/=10)
+			count++;
+		for (int k=len+count-1; k>=len; k--) {
+			buf[k]=(byte) ('0'+n%10);
+			n/=10;
+		}
+		len+=count;
+	}
+
+	/**
+	 * Prints a String, such as a prompt.
+	 * @param s the String
+	 */
+	public void print(String s) {
+		byte[] b=s.getBytes(StandardCharsets.UTF_8);
+		if (buf.length-len<b.length)
+			drain();
+		if (b.length>buf.length)
+			write(b,b.length);
+		else {
+			System.arraycopy(b,0,buf,len,b.length);
+			len+=b.length;
+		}
+	}
+
+	/** Writes out what is buffered, and flushes the stream. */
+	public void flush() {
+		drain();
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void drain() {
+		write(buf,len);
+		len=0;
+	}
+
+	private void write(byte[] b, int n) {
+		try {
+			out.write(b,0,n);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
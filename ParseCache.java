@@ -0,0 +1,118 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ParseCache keeps the syntax trees of recently parsed programs, so that a
+ * program seen before is not scanned and parsed again.
+ *
+ * Programs are keyed by the SHA-256 digest of their text, so the cache
+ * holds no program text. It holds at most a given number of trees, evicting
+ * the least recently used. Programs that do not parse are not cached.
+ *
+ * Every tree is parsed against the cache's Symbols, so all agree on slots.
+ * A cached tree is shared by everyone who parses the same text, maybe at
+ * the same time, with different environments. That is safe because a tree
+ * is not changed once parsed: eval() and the back ends only read it, and
+ * NodeProg publishes the quickened form it makes on its first eval().
+ * It is thread-safe.
+ *
+ * The Symbols only grow: a variable keeps its slot after the trees that
+ * use it are evicted, and an Environment's frame is as long as the highest
+ * slot it is given. So a daemon that sees ever new variable names grows
+ * with them, however few trees it keeps, until it is restarted. Starting
+ * the Symbols afresh would give a variable of a new tree the slot of one
+ * of a tree still in use, maybe by the same request. summary() reports
+ * how many variables there are, so the growth can be watched.
+ */
+public class ParseCache {
+	private final Symbols symbols;
+	private final Map<ByteBuffer, Node> trees;
+	private long hits, misses;
+
+	/**
+	 * Constructs an empty cache.
+	 * @param symbols the slots of the variables of the cached programs
+	 * @param capacity most trees to keep
+	 */
+	public ParseCache(Symbols symbols, int capacity) {
+		if (capacity<1)
+			throw new IllegalArgumentException("capacity "+capacity);
+		this.symbols=symbols;
+		this.trees=new LinkedHashMap<>(16,0.75f,true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Node> eldest) {
+				return size()>capacity;
+			}
+		};
+	}
+
+	/**
+	 * @return the slots of the variables of the cached programs
+	 */
+	public Symbols symbols() {
+		return symbols;
+	}
+
+	/**
+	 * Gets the tree of a program, parsing it only if it is not cached.
+	 * The parse is not under the cache's lock, so programs that miss can
+	 * be parsed at the same time.
+	 * @param program the program
+	 * @return the root node of the syntax tree
+	 * @throws SyntaxException if parsing fails
+	 */
+	public Node parse(String program) throws SyntaxException {
+		ByteBuffer key=key(program);
+		synchronized (this) {
+			Node tree=trees.get(key);
+			if (tree!=null) {
+				hits++;
+				return tree;
+			}
+			misses++;
+		}
+		Node tree=new Parser(symbols).parse(program);
+		synchronized (this) {
+			trees.put(key,tree);
+		}
+		return tree;
+	}
+
+	/** @return how many parses were answered from the cache */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/** @return how many parses were not */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * @return a line of the hits and misses so far, the trees cached, and
+	 *         the variables they have been given slots for
+	 */
+	public synchronized String summary() {
+		return "cache: "+hits+" hits, "+misses+" misses, "+trees.size()+" trees, "+symbols.size()+" variables";
+	}
+
+	/** @return number of trees cached */
+	public synchronized int size() {
+		return trees.size();
+	}
+
+	/** @return the digest of a program, as a key that compares by content */
+	private static ByteBuffer key(String program) {
+		try {
+			MessageDigest sha=MessageDigest.getInstance("SHA-256");
+			return ByteBuffer.wrap(sha.digest(program.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);	// every JVM has SHA-256
+		}
+	}
+
+}
@@ -4,19 +4,100 @@
  * It uses a scanner to read the tokens abd build a parse tree of nodes.
  */
 
+import java.nio.channels.ReadableByteChannel;
+
 public class Parser {
 	/** the scanner that provides the tokens for the parser */
 	private Scanner scanner;
+	/** the slots of the variables, shared by every program this parser parses */
+	private Symbols symbols;
+	/** nodes, and statements among them, made parsing the last program */
+	private int nodes, statements;
+	/** whether to time the scanning of each program */
+	private boolean timed;
+
+	/**
+	 * Constructs a parser with its own, empty, symbols.
+	 */
+	public Parser() {
+		this(new Symbols());
+	}
+
+	/**
+	 * Constructs a parser that resolves variables against given symbols.
+	 * 
+	 * @param symbols variable slots
+	 */
+	public Parser(Symbols symbols) {
+		this.symbols = symbols;
+	}
+
+	/**
+	 * @return the variable slots used by this parser
+	 */
+	public Symbols symbols() {
+		return symbols;
+	}
+
+	/**
+	 * @return tokens scanned parsing the last program
+	 */
+	public int tokens() {
+		return scanner == null ? 0 : scanner.tokens();
+	}
+
+	/**
+	 * Sets whether to time the scanning of the programs parsed, for scanned().
+	 * 
+	 * @param timed whether to
+	 */
+	public void time(boolean timed) {
+		this.timed = timed;
+	}
+
+	/**
+	 * @return ns spent scanning the last program, or 0 if not timed
+	 */
+	public long scanned() {
+		return scanner == null ? 0 : scanner.nanos();
+	}
+
+	/**
+	 * @return nodes made parsing the last program, before folding
+	 */
+	public int nodes() {
+		return nodes;
+	}
+
+	/**
+	 * @return statements parsed in the last program
+	 */
+	public int statements() {
+		return statements;
+	}
+
+	/**
+	 * Counts a node made.
+	 * 
+	 * @param node the node
+	 * @return the node
+	 */
+	private <N extends Node> N node(N node) {
+		nodes++;
+		if (node instanceof NodeStmt)
+			statements++;
+		return node;
+	}
 
 	/**
 	 * Ensures the token matches the expected symbol.
 	 * Goes onto the next if it is successful.
 	 * 
-	 * @param s token String
+	 * @param kind token kind
 	 * @throws SyntaxException if token does not match
 	 */
-	private void match(String s) throws SyntaxException {
-		scanner.match(new Token(s));
+	private void match(TokenKind kind) throws SyntaxException {
+		scanner.match(kind);
 	}
 
 	/**
@@ -33,7 +114,7 @@ public class Parser {
 	 * @return the current position
 	 */
 	private int pos() {
-		return (int) scanner.pos();
+		return scanner.pos();
 	}
 
 	/**
@@ -43,15 +124,16 @@ public class Parser {
 	 * @throws SyntaxException if parsing fails
 	 */
 	private NodeMulop parseMulop() throws SyntaxException {
-		if (curr().equals(new Token("*"))) {
-			match("*");
-			return new NodeMulop((int) pos(), "*");
+		switch (curr().kind()) {
+		case TIMES:
+			match(TokenKind.TIMES);
+			return node(new NodeMulop(pos(), "*"));
+		case DIVIDE:
+			match(TokenKind.DIVIDE);
+			return node(new NodeMulop(pos(), "/"));
+		default:
+			return null;
 		}
-		if (curr().equals(new Token("/"))) {
-			match("/");
-			return new NodeMulop((int) pos(), "/");
-		}
-		return null;
 	}
 
 	/**
@@ -61,15 +143,16 @@ public class Parser {
 	 * @throws SyntaxException if it fails
 	 */
 	private NodeAddop parseAddop() throws SyntaxException {
-		if (curr().equals(new Token("+"))) {
-			match("+");
-			return new NodeAddop((int) pos(), "+");
-		}
-		if (curr().equals(new Token("-"))) {
-			match("-");
-			return new NodeAddop((int) pos(), "-");
+		switch (curr().kind()) {
+		case PLUS:
+			match(TokenKind.PLUS);
+			return node(new NodeAddop(pos(), "+"));
+		case MINUS:
+			match(TokenKind.MINUS);
+			return node(new NodeAddop(pos(), "-"));
+		default:
+			return null;
 		}
-		return null;
 	}
 
 	/**
@@ -79,57 +162,53 @@ public class Parser {
 	 * @throws SyntaxException if it fails
 	 */
 	private NodeFact parseFact() throws SyntaxException {
-		if (curr().equals(new Token("-"))) {
-			match("-");
+		Token tok = curr();
+		switch (tok.kind()) {
+		case MINUS: {
+			match(TokenKind.MINUS);
 			NodeFact fact = parseFact();
-			return new NodeFactNeg(fact);
+			return node(new NodeFactNeg(fact));
 		}
-
-		if (curr().equals(new Token("("))) {
-			match("(");
+		case LPAREN: {
+			match(TokenKind.LPAREN);
 			NodeExpr expr = parseExpr();
-			match(")");
-			return new NodeFactExpr(expr);
+			match(TokenKind.RPAREN);
+			return node(new NodeFactExpr(expr));
 		}
-		if (curr().equals(new Token("id"))) {
-			Token id = curr();
-			match("id");
-			return new NodeFactId((int) pos(), id.lex());
+		case ID:
+			match(TokenKind.ID);
+			return node(new NodeFactId(pos(), tok.lex(), symbols.slot(tok.lex())));
+		default:
+			match(TokenKind.NUM);
+			return node(new NodeFactNum(tok.lex()));
 		}
-		Token num = curr();
-		match("num");
-		return new NodeFactNum(num.lex());
 	}
 
 	/**
-	 * Parses a term (a factor followed by a * or / and another term)
+	 * Parses a term (a factor followed by any number of * or / and factor)
 	 * 
 	 * @return a NodeTerm representing a term
 	 * @throws SyntaxException if it fails
 	 */
 	private NodeTerm parseTerm() throws SyntaxException {
-		NodeFact fact = parseFact();
-		NodeMulop mulop = parseMulop();
-		if (mulop == null)
-			return new NodeTerm(fact, null, null);
-		NodeTerm term = parseTerm();
-		term.append(new NodeTerm(fact, mulop, null));
+		NodeTerm term = node(new NodeTerm(parseFact()));
+		NodeMulop mulop;
+		while ((mulop = parseMulop()) != null)
+			term.append(mulop, parseFact());
 		return term;
 	}
 
 	/**
-	 * Parses the expression (term followed by + or - and another expression
+	 * Parses the expression (term followed by any number of + or - and term)
 	 * 
 	 * @return NodeExpr for this expression
 	 * @throws SyntaxException if it fails...
 	 */
 	private NodeExpr parseExpr() throws SyntaxException {
-		NodeTerm term = parseTerm();
-		NodeAddop addop = parseAddop();
-		if (addop == null)
-			return new NodeExpr(term, null, null);
-		NodeExpr expr = parseExpr();
-		expr.append(new NodeExpr(term, addop, null));
+		NodeExpr expr = node(new NodeExpr(parseTerm()));
+		NodeAddop addop;
+		while ((addop = parseAddop()) != null)
+			expr.append(addop, parseTerm());
 		return expr;
 	}
 
@@ -141,10 +220,10 @@ public class Parser {
 	 */
 	private NodeAssn parseAssn() throws SyntaxException {
 		Token id = curr();
-		match("id");
-		match("=");
+		match(TokenKind.ID);
+		match(TokenKind.ASSIGN);
 		NodeExpr expr = parseExpr();
-		NodeAssn assn = new NodeAssn(id.lex(), expr);
+		NodeAssn assn = node(new NodeAssn(id.lex(), symbols.slot(id.lex()), expr));
 		return assn;
 	}
 
@@ -156,7 +235,7 @@ public class Parser {
 	 */
 	private NodeProg parseProg() throws SyntaxException {
 		NodeBlock block = parseBlock();
-		return new NodeProg(block);
+		return node(new NodeProg(block));
 	}
 
 	/**
@@ -166,21 +245,26 @@ public class Parser {
 	 * @throws SyntaxException
 	 */
 	private NodeBlock parseBlock() throws SyntaxException {
-		NodeStmt stmt = parseStmt();
-		if (curr().equals(new Token(";"))) {
-			match(";");
-			NodeBlock block = parseBlock();
-			return new NodeBlock(stmt, block);
+		NodeBlock block = node(new NodeBlock(parseStmt()));
+		while (curr().kind() == TokenKind.SEMI) {
+			match(TokenKind.SEMI);
+			block.add(parseStmt());
 		}
-		return new NodeBlock(stmt, null);
+		return block;
 	}
 
 	private NodeBoolExpr parseBoolExpr() throws SyntaxException {
 		NodeExpr expr1 = parseExpr();
 		Token relop = curr();
-		match(relop.lex());
+		switch (relop.kind()) {
+		case LT: case LE: case GT: case GE: case EQ: case NE:
+			match(relop.kind());
+			break;
+		default:
+			throw new SyntaxException(pos(), TokenKind.RELOP.token(), relop);
+		}
 		NodeExpr expr2 = parseExpr();
-		return new NodeBoolExpr(expr1, relop.lex(), expr2);
+		return node(new NodeBoolExpr(expr1, relop.lex(), expr2));
 	}
 
 	/**
@@ -190,50 +274,55 @@ public class Parser {
 	 * @throws SyntaxException if it fails
 	 */
 	private NodeStmt parseStmt() throws SyntaxException {
-		if (curr().equals(new Token("id"))) {
+		int pos = pos();
+		switch (curr().kind()) {
+		case ID: {
 			NodeAssn assn = parseAssn();
-			match(";");
-			return new NodeStmt(assn);
+			match(TokenKind.SEMI);
+			return node(new NodeStmt(pos, assn));
 		}
-
-		if (curr().equals(new Token("rd"))) {
-			match("rd");
+		case RD: {
+			match(TokenKind.RD);
 			Token id = curr();
-			match("id");
-			match(";");
-			return new NodeStmt(new NodeRd(id.lex()));
+			match(TokenKind.ID);
+			match(TokenKind.SEMI);
+			return node(new NodeStmt(pos, node(new NodeRd(id.lex(), symbols.slot(id.lex())))));
 		}
-
-		if (curr().equals(new Token("wr"))) {
-			match("wr");
+		case WR: {
+			match(TokenKind.WR);
 			NodeExpr expr = parseExpr();
-			match(";");
-			return new NodeStmt(new NodeWr(expr));
+			match(TokenKind.SEMI);
+			return node(new NodeStmt(pos, node(new NodeWr(expr))));
 		}
-
-		if (curr().equals(new Token("if"))) {
-			match("if");
+		case IF: {
+			match(TokenKind.IF);
 			NodeBoolExpr boolExpr = parseBoolExpr();
-			match("then");
+			match(TokenKind.THEN);
 			NodeStmt thenStmt = parseStmt();
 
 			NodeStmt elseStmt = null;
-			if (curr().equals(new Token("else"))) {
-				match("else");
+			if (curr().kind() == TokenKind.ELSE) {
+				match(TokenKind.ELSE);
 				elseStmt = parseStmt();
 			}
-			return new NodeStmt(new NodeIf(boolExpr, thenStmt, elseStmt));
+			return node(new NodeStmt(pos, node(new NodeIf(boolExpr, thenStmt, elseStmt))));
 		}
-
-		if (curr().equals(new Token("while"))) {
-			match("while");
+		case WHILE: {
+			match(TokenKind.WHILE);
 			NodeBoolExpr boolExpr = parseBoolExpr();
-			match("do");
+			match(TokenKind.DO);
 			NodeStmt stmt = parseStmt();
-			return new NodeStmt(new NodeWhile(boolExpr, stmt));
+			return node(new NodeStmt(pos, node(new NodeWhile(pos, boolExpr, stmt))));
+		}
+		case BEGIN: {
+			match(TokenKind.BEGIN);
+			NodeBlock block = parseBlock();
+			match(TokenKind.END);
+			return node(new NodeStmt(pos, block));
+		}
+		default:
+			throw new SyntaxException(pos(), TokenKind.STMT.token(), curr());
 		}
-
-		throw new SyntaxException(pos(), new Token("stmt"), curr());
 	}
 
 	/**
@@ -244,11 +333,35 @@ public class Parser {
 	 * @throws SyntaxException if parsing fails
 	 */
 	public Node parse(String program) throws SyntaxException {
-		scanner = new Scanner(program);
+		return parse(new Scanner(program));
+	}
+
+	/**
+	 * parses an entire program read from a stream
+	 * 
+	 * @param program input code
+	 * @return the root node of the syntax tree
+	 * @throws SyntaxException if parsing fails
+	 */
+	public Node parse(ReadableByteChannel program) throws SyntaxException {
+		return parse(new Scanner(program));
+	}
+
+	/**
+	 * parses the program provided by a scanner, then folds its constants
+	 * 
+	 * @param scanner scanner over the input code
+	 * @return the root node of the syntax tree
+	 * @throws SyntaxException if parsing fails
+	 */
+	private Node parse(Scanner scanner) throws SyntaxException {
+		this.scanner = scanner;
+		scanner.time(timed);
+		nodes = statements = 0;
 		scanner.next();
 		NodeProg prog = parseProg();
-		match("EOF");
-		return prog;
+		match(TokenKind.EOF);
+		return prog.fold();
 	}
 
 }
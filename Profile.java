@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Profile counts how often each statement of the programs it runs is
+ * executed, and the time spent in it, and how many times each while loop
+ * goes round. Statements are keyed by program and position (see Node.pos),
+ * and report() lists them by the time spent in each but not in the
+ * statements inside it, its self time, most first.
+ *
+ * A program is profiled by quickening it while this Profile is active:
+ * statements and loops quickened then (see NodeStmt.quicken() and
+ * NodeWhile.quicken()) are wrapped in nodes that count and time them.
+ * That tree is made for the run, and any other is made as usual, so
+ * eval() costs nothing more when nothing is being profiled.
+ * Timing a statement costs about as much as running a short one, so
+ * compare statements with one another, rather than with a run without.
+ * It is not thread-safe.
+ */
+public class Profile {
+
+	private static final ThreadLocal<Profile> active=new ThreadLocal<>();
+
+	private Map<Long, Entry> entries=new HashMap<>();
+	private int progs;	// programs run so far
+	private long inner;	// ns spent in timed statements inside the one running
+
+	/** A statement's counts. */
+	private static class Entry {
+		final int prog;
+		NodeStmt stmt;	// null till its statement is quickened, after its loop
+		boolean loop;
+		long count, iterations, total, self;	// times in ns
+
+		Entry(int prog) {
+			this.prog=prog;
+		}
+	}
+
+	/**
+	 * @return the Profile quickening a program on this thread, or null
+	 */
+	static Profile active() {
+		return active.get();
+	}
+
+	/**
+	 * Evaluates a program, profiling it.
+	 * @param prog the program
+	 * @param env current run time environment
+	 * @return the value of the program
+	 * @throws EvalException if the program fails
+	 */
+	public double run(Node prog, Environment env) throws EvalException {
+		progs++;
+		Node run;
+		active.set(this);
+		try {
+			run=prog.quicken();
+		} finally {
+			active.remove();
+		}
+		return run.eval(env);
+	}
+
+	private Entry entry(int pos, NodeStmt stmt) {
+		Entry e=entries.computeIfAbsent((long) progs<<32|pos,k -> new Entry(progs));
+		if (stmt!=null)
+			e.stmt=stmt;
+		return e;
+	}
+
+	/**
+	 * @param stmt a statement
+	 * @param run the node that runs it
+	 * @return a node that runs it, counting and timing it
+	 */
+	Node statement(NodeStmt stmt, Node run) {
+		return new Timed(entry(stmt.pos(),stmt),run);
+	}
+
+	/**
+	 * @param pos position of a while statement
+	 * @param cond its condition
+	 * @param body its body
+	 * @return a node that runs the loop, counting its iterations
+	 */
+	Node loop(int pos, Node cond, Node body) {
+		Entry e=entry(pos,null);
+		e.loop=true;
+		return new Loop(e,cond,body);
+	}
+
+	private class Timed extends Node {
+		private final Entry e;
+		private final Node run;
+		Timed(Entry e, Node run) { this.e=e; this.run=run; }
+		public double eval(Environment env) throws EvalException {
+			long outer=inner;
+			inner=0;
+			long start=System.nanoTime();
+			try {
+				return run.eval(env);
+			} finally {
+				long t=System.nanoTime()-start;
+				e.count++;
+				e.total+=t;
+				e.self+=t-inner;
+				inner=outer+t;
+			}
+		}
+	}
+
+	private static class Loop extends Node {
+		private final Entry e;
+		private final Node cond, body;
+		Loop(Entry e, Node cond, Node body) { this.e=e; this.cond=cond; this.body=body; }
+		public double eval(Environment env) throws EvalException {
+			double result=0;
+			while (cond.eval(env)!=0) {
+				e.iterations++;
+				result=body.eval(env);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Prints the statements run, by self time, most first, with their
+	 * counts, self and total times, and their start in C.
+	 * @param out where to print
+	 */
+	public void report(PrintStream out) {
+		List<Entry> list=new ArrayList<>(entries.values());
+		list.sort((a,b) -> Long.compare(b.self,a.self));
+		long all=0;
+		for (Entry e: list)
+			all+=e.self;
+		out.printf("%-10s %10s %10s %6s %12s %12s  %s%n","where","self ms","total ms","self%","count","iterations","statement");
+		for (Entry e: list) {
+			out.printf("%-10s %10.3f %10.3f %6.1f %12d %12s  %s%n",
+				progs>1 ? e.prog+":"+e.stmt.pos() : "pos "+e.stmt.pos(),
+				e.self/1e6,e.total/1e6,all==0 ? 0 : 100.0*e.self/all,e.count,
+				e.loop ? Long.toString(e.iterations) : "",firstLine(e.stmt));
+		}
+	}
+
+	/**
+	 * @return the first line of a statement's C code, past any block
+	 *         declaring what it hoists (see Hoist), cut short
+	 */
+	private static String firstLine(Node stmt) {
+		StringBuilder sb=new StringBuilder();
+		try {
+			stmt.code(sb);
+		} catch (IOException e) {
+			// not from a StringBuilder
+		}
+		int start=0;
+		if (sb.indexOf("{\ndouble _t")==0)
+			while (sb.indexOf("double _t",start)==start || sb.indexOf("{\n",start)==start)
+				start=sb.indexOf("\n",start)+1;
+		int end=sb.indexOf("\n",start);
+		String line=end<0 ? sb.substring(start) : sb.substring(start,end);
+		return line.length()>40 ? line.substring(0,37)+"..." : line;
+	}
+
+}
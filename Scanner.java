@@ -5,123 +5,193 @@
  * operators, etc...) and provides them one at a time to the parser.
  *
  * Each token corresponds to a lexeme defined by the programming language grammar.
+ *
+ * The program is read through a sliding window, so a scanner over a Reader
+ * or channel holds only the current lexeme and a bounded amount of lookahead,
+ * no matter how large the program is. Positions are always program indices.
  */
-import java.util.*;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 
 public class Scanner {
 
-	private String program;		// source program being interpreted
+	/** initial (and usual) size of the window */
+	private static final int WINDOW=1<<16;
+
+	private Reader in;			// rest of the source program, null when exhausted
+	private char[] buf;			// window of the source program
+	private int base;			// index in program of buf[0]
+	private int lim;			// number of valid chars in buf
+	private int mark;			// index of first char of current lexeme
 	private int pos;			// index of next char in program
 	private Token token;		// last/current scanned token
+	private int tokens;			// number of tokens scanned, not counting EOF
+	private boolean timed;		// whether next() adds the time it takes to nanos
+	private long nanos;			// time spent in next(), if timed
+
+	// character classes, one bit per class, indexed by (ASCII) character;
+	// shared by every scanner and never modified after class initialization
+	private static final int WHITESPACE=1;
+	private static final int DIGIT=2;
+	private static final int LETTER=4;
+	private static final int OPERATOR=8;
+	private static final int LEGIT=LETTER|DIGIT;
+	private static final byte[] classes=new byte[128];
 
-	// sets of various characters and lexemes
-	private Set<String> whitespace=new HashSet<String>();
-	private Set<String> digits=new HashSet<String>();
-	private Set<String> letters=new HashSet<String>();
-	private Set<String> legits=new HashSet<String>();
-	private Set<String> keywords=new HashSet<String>();
-	private Set<String> operators=new HashSet<String>();
+	/** one-character operators, indexed by character */
+	private static final TokenKind[] operators=new TokenKind[128];
+	/** multiple-character operators */
+	private static final TokenKind[] operators2={
+		TokenKind.EQ, TokenKind.NE, TokenKind.LE, TokenKind.GE
+	};
+	/** keywords */
+	private static final TokenKind[] keywords={
+		TokenKind.RD, TokenKind.WR, TokenKind.IF, TokenKind.THEN, TokenKind.ELSE,
+		TokenKind.WHILE, TokenKind.DO, TokenKind.BEGIN, TokenKind.END
+	};
 
 	/**
-	 * Fills a set with all characters from low to hi inclusive
-	 * @param s the set to fill
+	 * Marks all characters from lo to hi inclusive as members of a class
+	 * @param cls the class bit
 	 * @param lo the first character in the range
 	 * @param hi the last character in the range
 	 */
-	private void fill(Set<String> s, char lo, char hi) {
+	private static void fill(int cls, char lo, char hi) {
 		for (char c=lo; c<=hi; c++)
-			s.add(c+"");
+			classes[c]|=cls;
+	}
+
+	static {
+		fill(WHITESPACE,' ',' ');
+		fill(WHITESPACE,'\n','\n');
+		fill(WHITESPACE,'\t','\t');
+		fill(DIGIT,'0','9');
+		fill(LETTER,'A','Z');
+		fill(LETTER,'a','z');
+		for (TokenKind op: new TokenKind[] {
+				TokenKind.ASSIGN, TokenKind.PLUS, TokenKind.MINUS, TokenKind.TIMES, TokenKind.DIVIDE,
+				TokenKind.LPAREN, TokenKind.RPAREN, TokenKind.SEMI, TokenKind.LT, TokenKind.GT }) {
+			char c=op.text().charAt(0);
+			classes[c]|=OPERATOR;
+			operators[c]=op;
+		}
 	}
 
 	/**
-	 * Initializes the whitespace character set
+	 * Constructs a scanner for the given source program
+	 * @param program source code to be scanned
 	 */
-	private void initWhitespace(Set<String> s) {
-		s.add(" ");
-		s.add("\n");
-		s.add("\t");
+	public Scanner(String program) {
+		in=null;
+		buf=program.toCharArray();
+		lim=buf.length;
+		base=mark=pos=0;
+		token=null;
 	}
 
-
-	/** Initializes the digit character set (0–9). */
-	private void initDigits(Set<String> s) {
-		fill(s,'0','9');
-	}
-	/** Initializes the letter character set (A–Z, a–z). */
-	private void initLetters(Set<String> s) {
-		fill(s,'A','Z');
-		fill(s,'a','z');
+	/**
+	 * Constructs a scanner that reads the source program as it goes.
+	 * The reader is closed when the end of the program is reached.
+	 * @param in source code to be scanned
+	 */
+	public Scanner(Reader in) {
+		this.in=in;
+		buf=new char[WINDOW];
+		base=lim=mark=pos=0;
+		token=null;
 	}
-	/** Initializes the legal alphanumeric character set (letters + digits). */
-	private void initLegits(Set<String> s) {
-		s.addAll(letters);
-		s.addAll(digits);
+
+	/**
+	 * Constructs a scanner that reads the (UTF-8) source program from a channel.
+	 * @param in source code to be scanned
+	 */
+	public Scanner(ReadableByteChannel in) {
+		this(Channels.newReader(in,StandardCharsets.UTF_8));
 	}
-	/** Initializes the operator character set. */
-	private void initOperators(Set<String> s) {
-		s.add("=");
-		s.add("+");
-		s.add("-");
-		s.add("*");
-		s.add("/");
-		s.add("(");
-		s.add(")");
-		s.add(";");
-		s.add("<");
-		s.add(">");
-		// multiple-character operators
-		s.add("==");
-		s.add("<>");
-		s.add("<=");
-		s.add(">=");
+
+	/**
+	 * Makes sure a program index is inside the window, reading more of the
+	 * program if needed. Everything before the current lexeme may be dropped.
+	 * @param i index in program
+	 * @return false if the program ends before i
+	 */
+	private boolean have(int i) {
+		while (i>=base+lim) {
+			if (in==null)
+				return false;
+			if (lim==buf.length) {
+				int keep=base+lim-mark;
+				char[] b=keep<buf.length/2 ? buf : new char[2*buf.length];
+				System.arraycopy(buf,mark-base,b,0,keep);
+				buf=b;
+				base=mark;
+				lim=keep;
+			}
+			try {
+				int n=in.read(buf,lim,buf.length-lim);
+				if (n<0) {
+					in.close();
+					in=null;
+				} else
+					lim+=n;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return true;
 	}
-	/** Initializes the keyword set. */
-	private void initKeywords(Set<String> s) {
-		s.add("rd");
-		s.add("wr");
-		s.add("if");
-		s.add("then");
-		s.add("else");
-		s.add("while");
-		s.add("do");
-		s.add("begin");
-		s.add("end");
+
+	/**
+	 * @param i index in program, which must be in the window
+	 * @return the character at i
+	 */
+	private char at(int i) {
+		return buf[i-base];
 	}
 
 	/**
-	 * Constructs a scanner for the given source program
-	 * @param program source code to be scanned
+	 * @param i index of the first character of the lexeme
+	 * @return the lexeme from i up to the current position
 	 */
-	// constructor:
-	//     - squirrel-away source program
-	//     - initialize sets
-	public Scanner(String program) {
-		this.program=program;
-		pos=0;
-		token=null;
-		initWhitespace(whitespace);
-		initDigits(digits);
-		initLetters(letters);
-		initLegits(legits);
-		initKeywords(keywords);
-		initOperators(operators);
+	private String lexeme(int i) {
+		return new String(buf,i-base,pos-i);
 	}
 
 	// handy string-processing methods
 	/** @return true if the end of the program has been reached. */
 	public boolean done() {
-		return pos>=program.length();
+		return !have(pos);
 	}
 
 	/**
-	 * Advances the position while the current character belongs to the given set.
-	 * @param s set of allowed characters
+	 * @param c a character
+	 * @return the class bits of c, or 0 if it belongs to no class
 	 */
-	private void many(Set<String> s) {
-		while (!done()&&s.contains(program.charAt(pos)+""))
+	private static int classOf(char c) {
+		return c<classes.length ? classes[c] : 0;
+	}
+
+	/**
+	 * Advances the position while the current character belongs to the given class(es).
+	 * @param cls class bits of allowed characters
+	 */
+	private void many(int cls) {
+		while (!done()&&(classOf(at(pos))&cls)!=0)
 			pos++;
 	}
 
+	/**
+	 * Like many(), for characters that are not part of any lexeme.
+	 * The skipped characters are not kept in the window.
+	 * @param cls class bits of allowed characters
+	 */
+	private void skip(int cls) {
+		while (!done()&&(classOf(at(pos))&cls)!=0)
+			mark=++pos;
+	}
+
 	// This method advances the scanner,
 	// until the current input character
 	// is just after a sequence of one or more
@@ -129,53 +199,76 @@ public class Scanner {
 	// Arguments:
 	//     c = the character to search for
 	// Members:
-	//     program = the scanner's input
+	//     buf = window of the scanner's input
 	//     pos = index of current input character
 
 	/**
 	 * Advances the position until after a specified character appears.
+	 * The skipped characters are not part of any lexeme, so they are not kept.
 	 * @param c character to skip past
 	 */
 	private void past(char c) {
-		while (!done()&&c!=program.charAt(pos))
-			pos++;
-		if (!done()&&c==program.charAt(pos))
-			pos++;
+		while (!done()&&c!=at(pos))
+			mark=++pos;
+		if (!done()&&c==at(pos))
+			mark=++pos;
 	}
 
 	// scan various kinds of lexeme
 	/** Scans a numeric literal token. */
 	private void nextNumber() {
 		int old=pos;
-		many(digits);
-        if (!done() && program.charAt(pos) == '.') {
+		many(DIGIT);
+        if (!done() && at(pos) == '.') {
             pos++;
-            many(digits);
+            many(DIGIT);
         }
-		token=new Token("num",program.substring(old,pos));
+		token=new Token(TokenKind.NUM,lexeme(old));
+	}
+	/**
+	 * @param s a string
+	 * @param old index in program
+	 * @return true if the program has s at index old
+	 */
+	private boolean same(String s, int old) {
+		for (int i=0; i<s.length(); i++)
+			if (s.charAt(i)!=at(old+i))
+				return false;
+		return true;
+	}
+	/**
+	 * Looks up a keyword in place, without extracting the lexeme.
+	 * @param old index of the first character of the lexeme
+	 * @return the keyword, or null if the lexeme is an identifier
+	 */
+	private TokenKind keyword(int old) {
+		int len=pos-old;
+		for (TokenKind kw: keywords)
+			if (kw.text().length()==len && same(kw.text(),old))
+				return kw;
+		return null;
 	}
 	/** Scans an identifier or keyword token. */
 	private void nextKwId() {
 		int old=pos;
-		many(letters);
-		many(legits);
-		String lexeme=program.substring(old,pos);
-		token=new Token((keywords.contains(lexeme) ? lexeme : "id"),lexeme);
+		many(LETTER);
+		many(LEGIT);
+		TokenKind kw=keyword(old);
+		token=kw!=null ? kw.token() : new Token(TokenKind.ID,lexeme(old));
 	}
 	/** Scans an operator token (one or two characters). */
 	private void nextOp() {
-		int old = pos;
-		pos= old + 2;
+		char c=at(pos++);
 		if (!done()) {
-			String lexeme=program.substring(old,pos);
-			if (operators.contains(lexeme)) {
-				token=new Token(lexeme); // two-char operator
-				return;
-			}
+			char c2=at(pos);
+			for (TokenKind op: operators2)
+				if (op.text().charAt(0)==c && op.text().charAt(1)==c2) {
+					pos++;
+					token=op.token(); // two-char operator
+					return;
+				}
 		}
-		pos=old+1;
-		String lexeme=program.substring(old,pos);
-		token=new Token(lexeme); // one-char operator
+		token=operators[c].token(); // one-char operator
 	}
 
 	// This method determines the kind of the next token (e.g., "id"),
@@ -186,53 +279,64 @@ public class Scanner {
 	 * @return false if EOF reached, true otherwise
 	 */
 	public boolean next() {
+		if (!timed)
+			return scan();
+		long start=System.nanoTime();
+		try {
+			return scan();
+		} finally {
+			nanos+=System.nanoTime()-start;
+		}
+	}
 
-		if (!done()) {
-			if(program.startsWith("//", pos)){ //skip comments with '//'
-				while(!done() && program.charAt(pos) != '\n')
-					pos++;
-				return next();
+	/**
+	 * scans the next token
+	 * @return false if EOF reached, true otherwise
+	 */
+	private boolean scan() {
+		while (true) {
+			mark=pos;
+			skip(WHITESPACE);
+			if (done()) {
+				token=TokenKind.EOF.token();
+				return false;
 			}
-			if (program.charAt(pos) == '#'){ //skip comments with '#'
-				while (!done() && program.charAt(pos) != '\n')
-					pos++;
-				return next();
+			if (at(pos)=='/' && have(pos+1) && at(pos+1)=='/') { //skip comments with '//'
+				past('\n');
+				continue;
 			}
+			if (at(pos)=='#') { //skip comments with '#'
+				past('\n');
+				continue;
+			}
+			int cls=classOf(at(pos));
+			if ((cls&DIGIT)!=0)
+				nextNumber();
+			else if ((cls&LETTER)!=0)
+				nextKwId();
+			else if ((cls&OPERATOR)!=0)
+				nextOp();
+			else {
+				System.err.println("illegal character at position "+pos);
+				pos++;
+				continue;
+			}
+			tokens++;
+			return true;
 		}
-
-		many(whitespace);
-		if (done()) {
-			token=new Token("EOF");
-			return false;
-		}
-
-
-		String c=program.charAt(pos)+"";
-		if (digits.contains(c))
-			nextNumber();
-		else if (letters.contains(c))
-			nextKwId();
-		else if (operators.contains(c))
-			nextOp();
-		else {
-			System.err.println("illegal character at position "+pos);
-			pos++;
-			return next();
-		}
-		return true;
 	}
 
 	// This method scans the next lexeme,
 	// if the current token is the expected token.
 
 	/**
-	 * Matches teh current token against an expected one and then advances
-	 * @param t expected token
+	 * Matches teh current token against an expected kind and then advances
+	 * @param kind expected token kind
 	 * @throws SyntaxException if current token does not match
 	 */
-	public void match(Token t) throws SyntaxException {
-		if (!t.equals(curr()))
-			throw new SyntaxException(pos,t,curr());
+	public void match(TokenKind kind) throws SyntaxException {
+		if (curr().kind()!=kind)
+			throw new SyntaxException(pos,kind.token(),curr());
 		next();
 	}
 
@@ -243,9 +347,28 @@ public class Scanner {
 	 */
 	public Token curr() throws SyntaxException {
 		if (token==null)
-			throw new SyntaxException(pos,new Token("ANY"),new Token("EMPTY"));
+			throw new SyntaxException(pos,TokenKind.ANY.token(),TokenKind.EMPTY.token());
 		return token;
 	}
+	/** @return the number of tokens scanned so far, not counting EOF */
+	public int tokens() {
+		return tokens;
+	}
+
+	/**
+	 * Sets whether to time scanning, for nanos(). Timing costs two reads
+	 * of the clock a token.
+	 * @param timed whether to
+	 */
+	public void time(boolean timed) {
+		this.timed=timed;
+	}
+
+	/** @return the time spent scanning so far, in ns, while timed */
+	public long nanos() {
+		return nanos;
+	}
+
 	/** @return the current position in the source code. */
 	public int pos() {
 		return pos;
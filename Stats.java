@@ -0,0 +1,246 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Stats measures the phases each program goes through: scan, parse, eval
+ * and code (generating C). Each phase of each program is a Flight Recorder
+ * event, translator.Phase, so a recording (java -XX:StartFlightRecording
+ * ...) shows where the time goes; and, with --stats, Main prints a table of
+ * them, and of their totals, on stderr at the end.
+ *
+ * A phase is measured by its wall time, the bytes its thread allocated
+ * (from com.sun.management.ThreadMXBean), and what it counted: tokens for
+ * scan, and tokens, nodes and statements for parse. The parser scans as it
+ * goes, so scan is the time the Scanner spends in next() during the parse,
+ * as it times itself while measured (see Scanner.time()), and the table's
+ * parse is the rest; what scan allocates is counted in parse. In a
+ * recording, scan is no event of its own but the scan field of parse.
+ * A program loaded from a .tac file, or found in the ParseCache, is not
+ * scanned, and its parse counts nothing.
+ *
+ * Loading the Flight Recorder's classes takes longer than a small program
+ * takes to run, so they are only loaded with --stats, or once a recording
+ * has started (see recording()). Otherwise start() costs nothing.
+ *
+ * Phases can be measured on several threads at once, as --parallel does.
+ */
+public class Stats {
+
+	/** the phases, in order */
+	public static final String[] PHASES={"scan", "parse", "eval", "code"};
+
+	/** One phase of one program. */
+	@Name("translator.Phase")
+	@Label("Phase")
+	@Category("Translator")
+	@Description("A phase of translating a program")
+	static class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+		@Label("Program")
+		@Description("Number of the program, from 1, in the order given")
+		int program;
+		@Label("Allocated")
+		@DataAmount
+		long allocated;
+		@Label("Tokens")
+		long tokens;
+		@Label("Nodes")
+		long nodes;
+		@Label("Statements")
+		long statements;
+		@Label("Scanning")
+		@Description("Time spent scanning, of a parse")
+		@Timespan
+		long scan;
+	}
+
+	/**
+	 * A phase being measured, made by start().
+	 */
+	public static class Phase {
+		private static final Phase NONE=new Phase();	// not measured
+
+		private final Stats stats;
+		private final PhaseEvent event;
+		private final long start, allocated;
+
+		private Phase() {
+			stats=null;
+			event=null;
+			start=allocated=0;
+		}
+
+		private Phase(Stats stats, String phase, int program) {
+			this.stats=stats;
+			event=new PhaseEvent();
+			event.phase=phase;
+			event.program=program;
+			boolean measure=stats!=null||event.isEnabled();
+			allocated=measure ? allocated() : 0;
+			event.begin();
+			start=System.nanoTime();
+		}
+
+		/**
+		 * Ends the phase, which counted nothing.
+		 */
+		public void end() {
+			end(0,0,0);
+		}
+
+		/**
+		 * Ends the phase.
+		 * @param tokens tokens it scanned
+		 * @param nodes nodes it made
+		 * @param statements statements among them
+		 */
+		public void end(long tokens, long nodes, long statements) {
+			end(0,tokens,nodes,statements);
+		}
+
+		/**
+		 * Ends a parse.
+		 * @param scan ns of it spent scanning
+		 * @param tokens tokens it scanned
+		 * @param nodes nodes it made
+		 * @param statements statements among them
+		 */
+		public void end(long scan, long tokens, long nodes, long statements) {
+			if (event==null)
+				return;
+			long ns=System.nanoTime()-start;
+			event.end();
+			if (stats==null&&!event.shouldCommit())
+				return;
+			event.allocated=allocated<0 ? -1 : allocated()-allocated;
+			event.tokens=tokens;
+			event.nodes=nodes;
+			event.statements=statements;
+			event.scan=scan;
+			event.commit();
+			if (stats!=null)
+				stats.add(event,ns);
+		}
+	}
+
+	/** A phase measured. */
+	private static class Row {
+		String phase;
+		int program;
+		long ns, allocated, tokens, nodes, statements;
+	}
+
+	private final List<Row> rows=new ArrayList<>();
+
+	/**
+	 * Starts measuring a phase.
+	 * @param stats where to keep it, besides in the Flight Recorder, or null
+	 * @param phase one of PHASES
+	 * @param program number of the program, from 1
+	 * @return the phase, to end() when it is done
+	 */
+	public static Phase start(Stats stats, String phase, int program) {
+		return stats==null&&!recording() ? Phase.NONE : new Phase(stats,phase,program);
+	}
+
+	/**
+	 * @param stats where phases are kept, or null
+	 * @return whether a phase would be kept there, or recorded
+	 */
+	public static boolean measuring(Stats stats) {
+		return stats!=null||recording()&&new PhaseEvent().isEnabled();
+	}
+
+	/**
+	 * @return whether the Flight Recorder has started a recording, from
+	 *         -XX:StartFlightRecording or jcmd, as it then sets the
+	 *         jdk.jfr.repository property; without loading its classes
+	 */
+	private static boolean recording() {
+		return System.getProperty("jdk.jfr.repository")!=null;
+	}
+
+	private synchronized void add(PhaseEvent event, long ns) {
+		if (event.scan>0) {
+			Row scan=new Row();
+			scan.phase="scan";
+			scan.program=event.program;
+			scan.ns=event.scan;
+			scan.allocated=-1;		// counted in parse
+			scan.tokens=event.tokens;
+			rows.add(scan);
+		}
+		Row row=new Row();
+		row.phase=event.phase;
+		row.program=event.program;
+		row.ns=ns-event.scan;
+		row.allocated=event.allocated;
+		row.tokens=event.tokens;
+		row.nodes=event.nodes;
+		row.statements=event.statements;
+		rows.add(row);
+	}
+
+	/** @return bytes allocated by this thread so far, or -1 if that is not measured */
+	private static long allocated() {
+		java.lang.management.ThreadMXBean bean=ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sun=(com.sun.management.ThreadMXBean) bean;
+			if (sun.isThreadAllocatedMemorySupported()&&sun.isThreadAllocatedMemoryEnabled())
+				return sun.getCurrentThreadAllocatedBytes();
+		}
+		return -1;
+	}
+
+	/**
+	 * Prints the phases of each program, in order, then the totals of each phase.
+	 * @param out where to print
+	 */
+	public synchronized void report(PrintStream out) {
+		rows.sort((a,b) -> a.program!=b.program ? Integer.compare(a.program,b.program)
+			: Integer.compare(index(a.phase),index(b.phase)));
+		out.printf("%-8s %-6s %10s %12s %10s %10s %10s%n","program","phase","wall ms","alloc KB","tokens","nodes","statements");
+		for (Row row: rows)
+			print(out,Integer.toString(row.program),row);
+		for (String phase: PHASES) {
+			Row total=new Row();
+			total.phase=phase;
+			boolean any=false;
+			for (Row row: rows)
+				if (row.phase.equals(phase)) {
+					any=true;
+					total.ns+=row.ns;
+					total.allocated=total.allocated<0||row.allocated<0 ? -1 : total.allocated+row.allocated;
+					total.tokens+=row.tokens;
+					total.nodes+=row.nodes;
+					total.statements+=row.statements;
+				}
+			if (any)
+				print(out,"total",total);
+		}
+	}
+
+	private static void print(PrintStream out, String program, Row row) {
+		out.printf("%-8s %-6s %10.3f %12s %10d %10d %10d%n",program,row.phase,row.ns/1e6,
+			row.allocated<0 ? "-" : String.format("%.1f",row.allocated/1024.0),row.tokens,row.nodes,row.statements);
+	}
+
+	private static int index(String phase) {
+		for (int i=0; i<PHASES.length; i++)
+			if (PHASES[i].equals(phase))
+				return i;
+		return PHASES.length;
+	}
+
+}
@@ -0,0 +1,57 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Symbols numbers the variables of the programs being translated.
+ *
+ * Each name gets a slot, in order of first appearance, starting at 0.
+ * The parser resolves every identifier to its slot, so the environment can
+ * keep values in an array; names are only needed for messages and C code.
+ * Trees parsed against the same Symbols agree on slots.
+ * It is thread-safe, so programs can be parsed against it at the same time,
+ * though then which slot each name gets depends on the order they are met.
+ * Only giving a new name its slot takes a lock; looking up a name already
+ * seen, as most identifiers are, does not, so parses on many threads do
+ * not queue for each identifier.
+ */
+public class Symbols {
+	private Map<String, Integer> slots=new ConcurrentHashMap<>();
+	private List<String> names=new ArrayList<>();	// guarded by this
+
+	/**
+	 * Gets the slot of a variable, giving it the next one if it is new.
+	 * @param var variable name
+	 * @return slot of var
+	 */
+	public int slot(String var) {
+		Integer slot=slots.get(var);
+		return slot!=null ? slot : add(var);
+	}
+
+	/** gives a name the next slot, unless another thread just has */
+	private synchronized int add(String var) {
+		Integer slot=slots.get(var);
+		if (slot==null) {
+			slot=names.size();
+			names.add(var);
+			slots.put(var,slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * @param slot a slot handed out by slot()
+	 * @return name of the variable in that slot
+	 */
+	public synchronized String name(int slot) {
+		return names.get(slot);
+	}
+
+	/** @return number of slots handed out */
+	public synchronized int size() {
+		return names.size();
+	}
+
+}
@@ -0,0 +1,316 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tac writes parsed programs in a compact binary form, a .tac file, and
+ * loads them again, so that a program need not be scanned and parsed each
+ * time it is run.
+ *
+ * A file is the magic number, a table of the strings of the program (the
+ * names of its variables, its operators, the text of its numbers), then
+ * its syntax tree in preorder, as written by each node's tac(), which
+ * refers to strings by their index in the table. So each string is decoded
+ * once, however often it is used. Counts, indexes, and positions, each the
+ * difference from the one before, are variable-length ints: seven bits a
+ * byte, low bits first, the top bit set on all but the last byte. A tree
+ * is written as parsed and folded, so loading it gives the same tree.
+ *
+ * Names, not slots, are written, since slots depend on what else was
+ * parsed; the loader resolves them against the Symbols it is given, in
+ * the order the parser would. It reads the file memory-mapped, so files
+ * must be under 2GB.
+ */
+public class Tac {
+
+	private static final int MAGIC=0x54414332;	// "TAC2"
+
+	// kinds of statement, written by NodeStmt, each followed by the statement's position
+	static final int ASSN=0;
+	static final int RD=1;
+	static final int WR=2;
+	static final int IF=3;
+	static final int WHILE=4;
+	static final int BLOCK=5;
+	// kinds of factor, written by each NodeFact
+	static final int NUM=6;
+	static final int ID=7;
+	static final int NEG=8;
+	static final int EXPR=9;
+	static final int CONST=10;	// a number whose text does not give its value
+
+	private final ByteArrayOutputStream tree=new ByteArrayOutputStream();
+	private final Map<String, Integer> strings=new LinkedHashMap<>();	// index of each string, in order of first use
+	private int pos;	// last position written
+
+	private Tac() {}
+
+	/**
+	 * Writes a program.
+	 * @param prog the program
+	 * @param out where to write
+	 * @throws IOException if writing fails
+	 * @throws UnsupportedOperationException if a node cannot be written
+	 */
+	public static void write(Node prog, OutputStream out) throws IOException {
+		Tac t=new Tac();
+		prog.tac(t);
+		Tac head=new Tac();
+		for (int shift=24; shift>=0; shift-=8)
+			head.tree.write(MAGIC>>>shift);
+		head.count(t.strings.size());
+		for (String s: t.strings.keySet()) {
+			byte[] b=s.getBytes(StandardCharsets.UTF_8);
+			head.count(b.length);
+			head.tree.write(b,0,b.length);
+		}
+		head.tree.writeTo(out);
+		t.tree.writeTo(out);
+	}
+
+	/**
+	 * Loads a program written by write().
+	 * @param path the file
+	 * @param symbols resolves the variables to slots
+	 * @return the root node of the syntax tree
+	 * @throws IOException if reading fails, or the file is not a program
+	 */
+	public static Node load(Path path, Symbols symbols) throws IOException {
+		ByteBuffer in;
+		try (FileChannel file=FileChannel.open(path)) {
+			in=file.map(FileChannel.MapMode.READ_ONLY,0,file.size());
+		}
+		try {
+			return new Loader(in,symbols).prog();
+		} catch (IOException|BufferUnderflowException|IndexOutOfBoundsException|NegativeArraySizeException|NumberFormatException e) {
+			throw new IOException(path+": not a compiled program",e);
+		}
+	}
+
+	/**
+	 * Writes the kind of a statement or factor.
+	 * @param kind one of the kinds above
+	 */
+	void tag(int kind) {
+		tree.write(kind);
+	}
+
+	/**
+	 * Writes a count, such as of the statements of a block.
+	 * @param n the count
+	 */
+	void count(int n) {
+		for (; (n&~0x7f)!=0; n>>>=7)
+			tree.write(n&0x7f|0x80);
+		tree.write(n);
+	}
+
+	/**
+	 * Writes a position in the source.
+	 * @param pos the position
+	 */
+	void pos(int pos) {
+		int delta=pos-this.pos;
+		this.pos=pos;
+		count(delta<<1^delta>>31);	// zigzag, so small negative deltas are small too
+	}
+
+	/**
+	 * Writes a variable.
+	 * @param id its name
+	 */
+	void name(String id) {
+		string(id);
+	}
+
+	/**
+	 * Writes a string, such as an operator.
+	 * @param s the string
+	 */
+	void string(String s) {
+		Integer index=strings.get(s);
+		if (index==null)
+			strings.put(s,index=strings.size());
+		count(index);
+	}
+
+	/**
+	 * @param num the text of a number, maybe in parentheses, as NodeFactNum has it
+	 * @return its value
+	 */
+	static double value(String num) {
+		if (num.startsWith("("))
+			num=num.substring(1,num.length()-1);
+		return Double.parseDouble(num);
+	}
+
+	/**
+	 * Writes a number.
+	 * @param d the number
+	 */
+	void number(double d) {
+		long l=Double.doubleToRawLongBits(d);
+		for (int shift=56; shift>=0; shift-=8)
+			tree.write((int) (l>>>shift));
+	}
+
+	/**
+	 * Loader rebuilds a tree from its preorder, as the Parser builds one
+	 * from tokens, with a method for each kind of node.
+	 */
+	private static class Loader {
+		private ByteBuffer in;
+		private Symbols symbols;
+		private String[] strings;
+		private int[] slots;	// slot of each string that names a variable, else -1
+		private double[] values;	// value of each string that is the text of a number
+		private int pos;	// last position read
+
+		Loader(ByteBuffer in, Symbols symbols) throws IOException {
+			this.in=in;
+			this.symbols=symbols;
+			if (in.getInt()!=MAGIC)
+				throw new IOException("bad magic number");
+			strings=new String[count()];
+			slots=new int[strings.length];
+			values=new double[strings.length];
+			for (int i=0; i<strings.length; i++) {
+				byte[] b=new byte[count()];
+				in.get(b);
+				strings[i]=new String(b,StandardCharsets.UTF_8);
+				slots[i]=-1;
+			}
+		}
+
+		NodeProg prog() throws IOException {
+			NodeProg prog=new NodeProg(block());
+			if (in.hasRemaining())
+				throw new IOException("junk after program");
+			return prog;
+		}
+
+		private NodeBlock block() throws IOException {
+			NodeBlock block=new NodeBlock();	// empty, if folding found it did nothing
+			for (int n=count(); n>0; n--)
+				block.add(stmt());
+			return block;
+		}
+
+		private NodeStmt stmt() throws IOException {
+			int kind=in.get();
+			int pos=pos();
+			switch (kind) {
+			case ASSN: {
+				int name=name();
+				return new NodeStmt(pos,new NodeAssn(strings[name],slots[name],expr()));
+			}
+			case RD: {
+				int name=name();
+				return new NodeStmt(pos,new NodeRd(strings[name],slots[name]));
+			}
+			case WR:
+				return new NodeStmt(pos,new NodeWr(expr()));
+			case IF: {
+				NodeBoolExpr boolExpr=boolExpr();
+				NodeStmt thenStmt=stmt();
+				return new NodeStmt(pos,new NodeIf(boolExpr,thenStmt,count()>0 ? stmt() : null));
+			}
+			case WHILE: {
+				NodeBoolExpr boolExpr=boolExpr();
+				return new NodeStmt(pos,new NodeWhile(pos,boolExpr,stmt()));
+			}
+			case BLOCK:
+				return new NodeStmt(pos,block());
+			default:
+				throw new IOException("bad statement");
+			}
+		}
+
+		private NodeBoolExpr boolExpr() throws IOException {
+			NodeExpr expr1=expr();
+			String relop=string();
+			return new NodeBoolExpr(expr1,relop,expr());
+		}
+
+		private NodeExpr expr() throws IOException {
+			NodeExpr expr=new NodeExpr(term());
+			for (int i=count(); i>0; i--) {
+				int pos=pos();
+				NodeAddop addop=new NodeAddop(pos,string());
+				expr.append(addop,term());
+			}
+			return expr;
+		}
+
+		private NodeTerm term() throws IOException {
+			NodeTerm term=new NodeTerm(fact());
+			for (int i=count(); i>0; i--) {
+				int pos=pos();
+				NodeMulop mulop=new NodeMulop(pos,string());
+				term.append(mulop,fact());
+			}
+			return term;
+		}
+
+		private NodeFact fact() throws IOException {
+			switch (in.get()) {
+			case NUM: {
+				int num=count();
+				if (values[num]==0)		// not yet parsed, or really 0
+					values[num]=value(strings[num]);
+				return new NodeFactNum(strings[num],values[num]);
+			}
+			case CONST: {
+				String num=string();
+				return new NodeFactNum(num,in.getDouble());
+			}
+			case ID: {
+				int pos=pos();
+				int name=name();
+				return new NodeFactId(pos,strings[name],slots[name]);
+			}
+			case NEG:
+				return new NodeFactNeg(fact());
+			case EXPR:
+				return new NodeFactExpr(expr());
+			default:
+				throw new IOException("bad factor");
+			}
+		}
+
+		private int count() {
+			int n=0;
+			for (int shift=0; ; shift+=7) {
+				byte b=in.get();
+				n|=(b&0x7f)<<shift;
+				if (b>=0)
+					return n;
+			}
+		}
+
+		private int pos() {
+			int zigzag=count();
+			return pos+=zigzag>>>1^-(zigzag&1);
+		}
+
+		/** @return the index of a string naming a variable, which now has a slot */
+		private int name() {
+			int name=count();
+			if (slots[name]<0)
+				slots[name]=symbols.slot(strings[name]);
+			return name;
+		}
+
+		private String string() {
+			return strings[count()];
+		}
+	}
+
+}
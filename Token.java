@@ -5,46 +5,46 @@
  * Represents a token produced by the scanner.
  *
  * A token consists of two parts:
- * 1) The token type (e.g., "id", "num", "+")
+ * 1) The token kind (e.g., id, num, +)
  * 2) The token’s lexeme, which is the exact string from the source (e.g., "foo", "42", "+")
+ *
+ * Tokens of fixed-lexeme kinds are shared; see TokenKind.token().
  */
 public class Token {
-	/** The token type (e.g., "id", "num", "+"). */
-	private String token;
+	/** The token kind (e.g., id, num, +). */
+	private final TokenKind kind;
 	/** The specific text (lexeme) associated with this token. */
-	private String lexeme;
+	private final String lexeme;
 
 	/**
-	 * Constructs a Token where the type and lexeme are the same.
-	 * @param token  type
-	 * @param lexeme type
+	 * Constructs a Token of a kind with a lexeme.
+	 * @param kind   kind
+	 * @param lexeme text from the source
 	 */
-	public Token(String token, String lexeme) {
-		this.token=token;
+	public Token(TokenKind kind, String lexeme) {
+		this.kind=kind;
 		this.lexeme=lexeme;
 	}
+
 	/**
-	 * Returns the token type.
+	 * Returns the token kind.
 	 *
-	 * @return the token type string
+	 * @return the token kind
 	 */
-	public Token(String token) {
-		this(token,token);
-	}
+	public TokenKind kind() { return kind; }
 
 	/**
 	 * Returns the token type.
 	 *
 	 * @return the token type string
 	 */
+	public String tok() { return kind.text(); }
 
-	public String tok() { return token; }
 	/**
 	 * Returns the token’s lexeme.
 	 *
 	 * @return the lexeme string
 	 */
-
 	public String lex() { return lexeme; }
 
 	/**
@@ -54,7 +54,7 @@ public class Token {
 	 * @return true if both tokens have the same type
 	 */
 	public boolean equals(Token t) {
-		return token.equals(t.token);
+		return kind==t.kind;
 	}
 
 	/**
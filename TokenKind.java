@@ -0,0 +1,63 @@
+/**
+ * The kinds of token produced by the scanner.
+ *
+ * Kinds whose lexeme is always the same (punctuation and keywords) have one
+ * preallocated token, which the scanner hands out for every occurrence.
+ * The parser dispatches on kinds with a switch, rather than comparing strings.
+ */
+public enum TokenKind {
+	ID("id"),
+	NUM("num"),
+	EOF("EOF"),
+	// operators
+	ASSIGN("="),
+	PLUS("+"),
+	MINUS("-"),
+	TIMES("*"),
+	DIVIDE("/"),
+	LPAREN("("),
+	RPAREN(")"),
+	SEMI(";"),
+	LT("<"),
+	GT(">"),
+	EQ("=="),
+	NE("<>"),
+	LE("<="),
+	GE(">="),
+	// keywords
+	RD("rd"),
+	WR("wr"),
+	IF("if"),
+	THEN("then"),
+	ELSE("else"),
+	WHILE("while"),
+	DO("do"),
+	BEGIN("begin"),
+	END("end"),
+	// only appear in syntax errors
+	STMT("stmt"),
+	RELOP("relop"),
+	ANY("ANY"),
+	EMPTY("EMPTY");
+
+	/** The token type as it appears in messages (e.g., "id", "+"). */
+	private final String text;
+	/** The shared token of this kind, with the type as its lexeme. */
+	private final Token token;
+
+	TokenKind(String text) {
+		this.text=text;
+		this.token=new Token(this,text);
+	}
+
+	/** @return the token type string */
+	public String text() { return text; }
+
+	/**
+	 * Returns the shared token of this kind. Only meaningful for kinds
+	 * whose lexeme is fixed (i.e., not id or num).
+	 * @return the token
+	 */
+	public Token token() { return token; }
+
+}
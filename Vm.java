@@ -0,0 +1,263 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Vm is a program compiled to instructions for a small register machine,
+ * and the loop that runs them. The program is flat arrays, not a tree:
+ * an int[] of instructions, a double[] of constants, and a register file
+ * of doubles. Registers are either variables of the program or temporaries
+ * that hold intermediate results.
+ *
+ * Each instruction is an opcode followed by its operands, which are
+ * register numbers, constant numbers, positions or branch targets. There
+ * are superinstructions for common patterns: arithmetic with a constant
+ * operand, x=x+k as one instruction, and a comparison fused with the branch
+ * of a while or if.
+ *
+ * Programs are built by VmCompiler, and can be written and read with
+ * write() and read().
+ */
+public class Vm {
+
+	// opcodes, each followed by its operands
+	static final int HALT=0;
+	static final int LOADK=1;		// d k: r[d]=K[k]
+	static final int MOV=2;			// d a: r[d]=r[a]
+	static final int ADD=3;			// d a b: r[d]=r[a]+r[b]
+	static final int SUB=4;
+	static final int MUL=5;
+	static final int DIV=6;
+	static final int ADDK=7;		// d a k: r[d]=r[a]+K[k]
+	static final int MULK=8;
+	static final int DIVK=9;
+	static final int NEG=10;		// d a: r[d]=-r[a]
+	static final int CHK=11;		// a pos: fail if variable a is undefined
+	static final int PRINT=12;		// a: print r[a]
+	static final int ASSN=13;		// d: print r[d], and define variable d
+	static final int ASSNADDK=14;	// d a k: ADDK then ASSN
+	static final int READ=15;		// d: read variable d
+	static final int JMP=16;		// t: jump to t
+	static final int JNLT=17;		// a b t: jump to t unless r[a]<r[b]
+	static final int JNLE=18;
+	static final int JNGT=19;
+	static final int JNGE=20;
+	static final int JNEQ=21;
+	static final int JNNE=22;
+	static final int JNLTK=23;		// a k t: jump to t unless r[a]<K[k]
+	static final int JNLEK=24;
+	static final int JNGTK=25;
+	static final int JNGEK=26;
+	static final int JNEQK=27;
+	static final int JNNEK=28;
+
+	private static final int MAGIC=0x54564d31;	// "TVM1"
+
+	// operands of each opcode: r a register, v a variable's register, k a
+	// constant, p a position, t a branch target
+	private static final String[] OPERANDS={
+		"", "rk", "rr", "rrr", "rrr", "rrr", "rrr", "rrk", "rrk", "rrk", "rr",
+		"vp", "r", "v", "vrk", "v", "t",
+		"rrt", "rrt", "rrt", "rrt", "rrt", "rrt",
+		"rkt", "rkt", "rkt", "rkt", "rkt", "rkt"
+	};
+
+	private int[] code;
+	private double[] consts;
+	private int[] slots;	// slot of each register's variable, or -1 for a temporary
+	private String[] names;	// name of each register's variable, or null for a temporary
+
+	Vm(int[] code, double[] consts, int[] slots, String[] names) {
+		this.code=code;
+		this.consts=consts;
+		this.slots=slots;
+		this.names=names;
+	}
+
+	/**
+	 * Compiles a program.
+	 * @param prog the program
+	 * @return the compiled program
+	 * @throws UnsupportedOperationException if a node cannot be compiled
+	 */
+	public static Vm compile(Node prog) {
+		VmCompiler c=new VmCompiler();
+		prog.vm(c,-1);
+		return c.finish();
+	}
+
+	/**
+	 * Runs the program. Variables are loaded from the environment into
+	 * registers, and stored back when it ends, even by an error.
+	 * @param env current run time environment
+	 * @throws EvalException if the program fails
+	 */
+	public void run(Environment env) throws EvalException {
+		double[] r=new double[names.length];
+		boolean[] defined=new boolean[names.length];
+		for (int i=0; i<names.length; i++)
+			if (names[i]!=null && env.defined(slots[i])) {
+				defined[i]=true;
+				r[i]=env.value(slots[i]);
+			}
+		try {
+			exec(r,defined,env);
+		} finally {
+			for (int i=0; i<names.length; i++)
+				if (defined[i])
+					env.put(slots[i],names[i],r[i]);
+		}
+	}
+
+	private void exec(double[] r, boolean[] defined, Environment env) throws EvalException {
+		int[] c=code;
+		double[] k=consts;
+		int pc=0;
+		for (;;)
+			switch (c[pc]) {
+			case HALT: return;
+			case LOADK: r[c[pc+1]]=k[c[pc+2]]; pc+=3; break;
+			case MOV: r[c[pc+1]]=r[c[pc+2]]; pc+=3; break;
+			case ADD: r[c[pc+1]]=r[c[pc+2]]+r[c[pc+3]]; pc+=4; break;
+			case SUB: r[c[pc+1]]=r[c[pc+2]]-r[c[pc+3]]; pc+=4; break;
+			case MUL: r[c[pc+1]]=r[c[pc+2]]*r[c[pc+3]]; pc+=4; break;
+			case DIV: r[c[pc+1]]=r[c[pc+2]]/r[c[pc+3]]; pc+=4; break;
+			case ADDK: r[c[pc+1]]=r[c[pc+2]]+k[c[pc+3]]; pc+=4; break;
+			case MULK: r[c[pc+1]]=r[c[pc+2]]*k[c[pc+3]]; pc+=4; break;
+			case DIVK: r[c[pc+1]]=r[c[pc+2]]/k[c[pc+3]]; pc+=4; break;
+			case NEG: r[c[pc+1]]=-r[c[pc+2]]; pc+=3; break;
+			case CHK:
+				if (!defined[c[pc+1]])
+					throw new EvalException(c[pc+2],"undefined variable: "+names[c[pc+1]]);
+				pc+=3;
+				break;
+			case PRINT: NodeWr.print(r[c[pc+1]],env); pc+=2; break;
+			case ASSN:
+				NodeWr.print(r[c[pc+1]],env);
+				defined[c[pc+1]]=true;
+				pc+=2;
+				break;
+			case ASSNADDK:
+				NodeWr.print(r[c[pc+1]]=r[c[pc+2]]+k[c[pc+3]],env);
+				defined[c[pc+1]]=true;
+				pc+=4;
+				break;
+			case READ:
+				r[c[pc+1]]=NodeRd.read(env,names[c[pc+1]]);
+				defined[c[pc+1]]=true;
+				pc+=2;
+				break;
+			case JMP: pc=c[pc+1]; break;
+			case JNLT: pc=r[c[pc+1]]<r[c[pc+2]] ? pc+4 : c[pc+3]; break;
+			case JNLE: pc=r[c[pc+1]]<=r[c[pc+2]] ? pc+4 : c[pc+3]; break;
+			case JNGT: pc=r[c[pc+1]]>r[c[pc+2]] ? pc+4 : c[pc+3]; break;
+			case JNGE: pc=r[c[pc+1]]>=r[c[pc+2]] ? pc+4 : c[pc+3]; break;
+			case JNEQ: pc=r[c[pc+1]]==r[c[pc+2]] ? pc+4 : c[pc+3]; break;
+			case JNNE: pc=r[c[pc+1]]!=r[c[pc+2]] ? pc+4 : c[pc+3]; break;
+			case JNLTK: pc=r[c[pc+1]]<k[c[pc+2]] ? pc+4 : c[pc+3]; break;
+			case JNLEK: pc=r[c[pc+1]]<=k[c[pc+2]] ? pc+4 : c[pc+3]; break;
+			case JNGTK: pc=r[c[pc+1]]>k[c[pc+2]] ? pc+4 : c[pc+3]; break;
+			case JNGEK: pc=r[c[pc+1]]>=k[c[pc+2]] ? pc+4 : c[pc+3]; break;
+			case JNEQK: pc=r[c[pc+1]]==k[c[pc+2]] ? pc+4 : c[pc+3]; break;
+			case JNNEK: pc=r[c[pc+1]]!=k[c[pc+2]] ? pc+4 : c[pc+3]; break;
+			default: throw new IllegalStateException("bad opcode "+c[pc]+" at "+pc);
+			}
+	}
+
+	/**
+	 * Writes the program. Variables are written by name, since slots are
+	 * only meaningful to the Symbols that made them.
+	 * @param out where to write
+	 * @throws IOException if writing fails
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(code.length);
+		for (int i: code)
+			out.writeInt(i);
+		out.writeInt(consts.length);
+		for (double d: consts)
+			out.writeDouble(d);
+		out.writeInt(names.length);
+		for (String name: names) {
+			out.writeBoolean(name!=null);
+			if (name!=null)
+				out.writeUTF(name);
+		}
+	}
+
+	/**
+	 * Reads a program written by write(). It is checked as it would be
+	 * run, so that a corrupt one is an IOException, not a bad index in
+	 * exec().
+	 * @param in where to read
+	 * @param symbols resolves the variables to slots
+	 * @return the program
+	 * @throws IOException if reading fails, or this is not a program
+	 */
+	public static Vm read(DataInput in, Symbols symbols) throws IOException {
+		if (in.readInt()!=MAGIC)
+			throw new IOException("not a compiled program");
+		int[] code=new int[length(in)];
+		for (int i=0; i<code.length; i++)
+			code[i]=in.readInt();
+		double[] consts=new double[length(in)];
+		for (int i=0; i<consts.length; i++)
+			consts[i]=in.readDouble();
+		String[] names=new String[length(in)];
+		int[] slots=new int[names.length];
+		for (int i=0; i<names.length; i++) {
+			names[i]=in.readBoolean() ? in.readUTF() : null;
+			slots[i]=names[i]==null ? -1 : symbols.slot(names[i]);
+		}
+		check(code,consts.length,names);
+		return new Vm(code,consts,slots,names);
+	}
+
+	private static int length(DataInput in) throws IOException {
+		int n=in.readInt();
+		if (n<0)
+			throw new IOException("bad length "+n);
+		return n;
+	}
+
+	/**
+	 * Checks that each opcode is known, each operand is in range, each
+	 * branch goes to an instruction, and the code cannot run off its end.
+	 * @param code the instructions
+	 * @param consts number of constants
+	 * @param names name of each register's variable, or null for a temporary
+	 * @throws IOException if the code is bad
+	 */
+	private static void check(int[] code, int consts, String[] names) throws IOException {
+		boolean[] start=new boolean[code.length];
+		int last=-1;
+		for (int pc=0; pc<code.length; pc+=1+OPERANDS[code[pc]].length()) {
+			if (code[pc]<0 || code[pc]>=OPERANDS.length)
+				throw new IOException("bad opcode "+code[pc]+" at "+pc);
+			if (pc+OPERANDS[code[pc]].length()>=code.length)
+				throw new IOException("truncated instruction at "+pc);
+			start[pc]=true;
+			last=pc;
+		}
+		if (last<0 || code[last]!=HALT && code[last]!=JMP)
+			throw new IOException("code runs off its end");
+		for (int pc=0; pc<code.length; pc+=1+OPERANDS[code[pc]].length()) {
+			String operands=OPERANDS[code[pc]];
+			for (int i=0; i<operands.length(); i++) {
+				int operand=code[pc+1+i];
+				boolean ok;
+				switch (operands.charAt(i)) {
+				case 'r': ok=operand>=0 && operand<names.length; break;
+				case 'v': ok=operand>=0 && operand<names.length && names[operand]!=null; break;
+				case 'k': ok=operand>=0 && operand<consts; break;
+				case 't': ok=operand>=0 && operand<code.length && start[operand]; break;
+				default: ok=true;
+				}
+				if (!ok)
+					throw new IOException("bad operand "+operand+" at "+pc);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,324 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * VmCompiler emits the instructions of a Vm program. Nodes drive it
+ * through their vm() methods, as they drive Jvm through jvm().
+ *
+ * An expression is compiled into a register: the one asked for, or, if
+ * any will do, the register of a variable it just reads, or a temporary.
+ * Temporaries are freed by whoever uses them, and reused.
+ *
+ * A variable is only checked for a definition where it might not have
+ * one yet: not after it has been assigned or checked on every path to
+ * the read.
+ */
+public class VmCompiler {
+
+	/** a position in the code, possibly not yet known */
+	public static class Label {
+		private int pc=-1;
+		private List<Integer> uses=new ArrayList<>();	// operands to patch, before it was placed
+	}
+
+	private int[] code=new int[64];
+	private int pc;
+	private int last=-1;	// start of the last instruction, if nothing can jump past it
+
+	private List<Double> consts=new ArrayList<>();
+	private Map<Long, Integer> constIndex=new HashMap<>();
+
+	private List<String> names=new ArrayList<>();	// null for temporaries
+	private List<Integer> slots=new ArrayList<>();
+	private Map<Integer, Integer> registers=new HashMap<>();	// slot to register
+	private List<Integer> free=new ArrayList<>();	// temporaries not in use
+
+	private BitSet known=new BitSet();	// variables surely defined here
+
+	private void emit(int... ins) {
+		if (pc+ins.length>code.length)
+			code=Arrays.copyOf(code,2*code.length+ins.length);
+		last=pc;
+		for (int i: ins)
+			code[pc++]=i;
+	}
+
+	private int constant(double d) {
+		Long bits=Double.doubleToRawLongBits(d);
+		Integer k=constIndex.get(bits);
+		if (k==null) {
+			k=consts.size();
+			consts.add(d);
+			constIndex.put(bits,k);
+		}
+		return k;
+	}
+
+	/** @return a free temporary register */
+	public int temp() {
+		if (!free.isEmpty())
+			return free.remove(free.size()-1);
+		names.add(null);
+		slots.add(-1);
+		return names.size()-1;
+	}
+
+	/**
+	 * Frees a register, if it is a temporary.
+	 * @param r the register
+	 */
+	public void free(int r) {
+		if (names.get(r)==null)
+			free.add(r);
+	}
+
+	/**
+	 * @param slot variable slot
+	 * @param name variable name
+	 * @return register of the variable
+	 */
+	public int var(int slot, String name) {
+		Integer r=registers.get(slot);
+		if (r==null) {
+			r=names.size();
+			names.add(name);
+			slots.add(slot);
+			registers.put(slot,r);
+		}
+		return r;
+	}
+
+	/**
+	 * @param dst register wanted, or -1 for any
+	 * @return dst, or a temporary
+	 */
+	private int target(int dst) {
+		return dst>=0 ? dst : temp();
+	}
+
+	/**
+	 * Compiles a constant.
+	 * @param d the constant
+	 * @param dst register wanted, or -1 for any
+	 * @return register holding it
+	 */
+	public int constant(double d, int dst) {
+		int r=target(dst);
+		emit(Vm.LOADK,r,constant(d));
+		return r;
+	}
+
+	/**
+	 * Compiles a read of a variable, checking it is defined if need be.
+	 * @param pos position of the read, for the error
+	 * @param slot variable slot
+	 * @param name variable name
+	 * @param dst register wanted, or -1 for any
+	 * @return register holding it
+	 */
+	public int load(int pos, int slot, String name, int dst) {
+		int r=var(slot,name);
+		if (!known.get(r)) {
+			emit(Vm.CHK,r,pos);
+			known.set(r);
+		}
+		if (dst<0 || dst==r)
+			return r;
+		emit(Vm.MOV,dst,r);
+		return dst;
+	}
+
+	/**
+	 * Compiles an operator, given its compiled left operand.
+	 * @param op +, -, * or /
+	 * @param dst register wanted, or -1 for any
+	 * @param left register holding the left operand
+	 * @param right the right operand
+	 * @return register holding the result
+	 */
+	public int arith(String op, int dst, int left, Node right) {
+		NodeFactNum num=constant(right);
+		if (num!=null) {
+			double k=num.value();
+			free(left);
+			int r=target(dst);
+			switch (op) {
+			case "+": emit(Vm.ADDK,r,left,constant(k)); break;
+			case "-": emit(Vm.ADDK,r,left,constant(-k)); break;	// x-k is x+(-k) exactly
+			case "*": emit(Vm.MULK,r,left,constant(k)); break;
+			case "/": emit(Vm.DIVK,r,left,constant(k)); break;
+			default: throw new UnsupportedOperationException("operator "+op);
+			}
+			return r;
+		}
+		int rr=right.vm(this,-1);
+		free(left);
+		free(rr);
+		int r=target(dst);
+		switch (op) {
+		case "+": emit(Vm.ADD,r,left,rr); break;
+		case "-": emit(Vm.SUB,r,left,rr); break;
+		case "*": emit(Vm.MUL,r,left,rr); break;
+		case "/": emit(Vm.DIV,r,left,rr); break;
+		default: throw new UnsupportedOperationException("operator "+op);
+		}
+		return r;
+	}
+
+	private static NodeFactNum constant(Node n) {
+		if (n instanceof NodeTerm)
+			return ((NodeTerm) n).constant();
+		if (n instanceof NodeFact)
+			return ((NodeFact) n).constant();
+		return null;
+	}
+
+	/**
+	 * Compiles a negation, given its compiled operand.
+	 * @param dst register wanted, or -1 for any
+	 * @param a register holding the operand
+	 * @return register holding the result
+	 */
+	public int neg(int dst, int a) {
+		free(a);
+		int r=target(dst);
+		emit(Vm.NEG,r,a);
+		return r;
+	}
+
+	/**
+	 * Compiles printing a value, as wr does.
+	 * @param a register holding it
+	 */
+	public void print(int a) {
+		emit(Vm.PRINT,a);
+		free(a);
+	}
+
+	/**
+	 * Compiles the end of an assignment, which prints the value now in the
+	 * variable's register. x=x+k becomes one instruction.
+	 * @param r register of the variable
+	 */
+	public void assign(int r) {
+		if (last>=0 && code[last]==Vm.ADDK && code[last+1]==r)
+			code[last]=Vm.ASSNADDK;
+		else
+			emit(Vm.ASSN,r);
+		known.set(r);
+	}
+
+	/**
+	 * Compiles reading a variable, as rd does.
+	 * @param slot variable slot
+	 * @param name variable name
+	 */
+	public void read(int slot, String name) {
+		int r=var(slot,name);
+		emit(Vm.READ,r);
+		known.set(r);
+	}
+
+	/** @return a label, to be placed later */
+	public Label label() {
+		return new Label();
+	}
+
+	/**
+	 * Places a label at the current position.
+	 * @param l the label
+	 */
+	public void place(Label l) {
+		l.pc=pc;
+		for (int use: l.uses)
+			code[use]=pc;
+		last=-1;
+	}
+
+	private void target(Label l) {
+		if (l.pc<0)
+			l.uses.add(pc-1);
+		code[pc-1]=l.pc;
+	}
+
+	/**
+	 * Compiles a jump.
+	 * @param l where to
+	 */
+	public void jump(Label l) {
+		emit(Vm.JMP,0);
+		target(l);
+	}
+
+	/**
+	 * Compiles a comparison, jumping to a label if it is false.
+	 * @param left register holding the left operand
+	 * @param relop relational operator
+	 * @param right the right operand
+	 * @param l where to jump
+	 */
+	public void jumpUnless(int left, String relop, NodeExpr right, Label l) {
+		int op;
+		switch (relop) {
+		case "<":  op=Vm.JNLT; break;
+		case "<=": op=Vm.JNLE; break;
+		case ">":  op=Vm.JNGT; break;
+		case ">=": op=Vm.JNGE; break;
+		case "==": op=Vm.JNEQ; break;
+		case "<>": op=Vm.JNNE; break;
+		default: throw new UnsupportedOperationException("relop "+relop);
+		}
+		NodeFactNum num=right.constant();
+		if (num!=null) {
+			emit(op+Vm.JNLTK-Vm.JNLT,left,constant(num.value()),0);
+			free(left);
+		} else {
+			int rr=right.vm(this,-1);
+			emit(op,left,rr,0);
+			free(left);
+			free(rr);
+		}
+		target(l);
+	}
+
+	/** @return what is known to be defined here, to restore() later */
+	public BitSet known() {
+		return (BitSet) known.clone();
+	}
+
+	/**
+	 * Sets what is known to be defined, after a branch.
+	 * @param k what is known
+	 */
+	public void restore(BitSet k) {
+		known=(BitSet) k.clone();
+	}
+
+	/**
+	 * Keeps only what is also known on another path, where two paths join.
+	 * @param k what is known on the other path
+	 */
+	public void merge(BitSet k) {
+		known.and(k);
+	}
+
+	/**
+	 * Ends the program.
+	 * @return the program
+	 */
+	Vm finish() {
+		emit(Vm.HALT);
+		double[] k=new double[consts.size()];
+		for (int i=0; i<k.length; i++)
+			k[i]=consts.get(i);
+		int[] s=new int[slots.size()];
+		for (int i=0; i<s.length; i++)
+			s[i]=slots.get(i);
+		return new Vm(Arrays.copyOf(code,pc),k,s,names.toArray(new String[0]));
+	}
+
+}
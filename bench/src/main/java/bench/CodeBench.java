@@ -0,0 +1,58 @@
+package bench;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generating C: Node.code() of a parsed program into memory, and a whole
+ * C file, declarations and all, written by Code.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class CodeBench {
+
+	/** statements in the program */
+	@Param({"100", "10000"})
+	public int size;
+
+	private Object prog;
+	private Object symbols;
+	private StringBuilder out=new StringBuilder();
+
+	@Setup
+	public void setup() throws Throwable {
+		Object parser=Translator.parser();
+		prog=Translator.parse(parser,Programs.straight(size));
+		symbols=Translator.symbols(parser);
+	}
+
+	/** @return the length of the C code */
+	@Benchmark
+	public int code() throws Throwable {
+		out.setLength(0);
+		Translator.code(prog,out);
+		return out.length();
+	}
+
+	@Benchmark
+	public void file() throws Throwable {
+		Translator.code(Writer.nullWriter(),symbols,prog);
+	}
+
+}
@@ -0,0 +1,66 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Environment.put() and get() of every slot, in a fresh environment, so
+ * the first puts also grow it, and in one that has them all already.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class EnvironmentBench {
+
+	/** number of variables */
+	@Param({"8", "1000"})
+	public int size;
+
+	private String[] names;
+	private Object env;
+
+	@Setup
+	public void setup() throws Throwable {
+		names=new String[size];
+		for (int slot=0; slot<size; slot++)
+			names[slot]="v"+slot;
+		env=Translator.environment();
+		putGet(env);
+	}
+
+	/** @return the sum of the values got */
+	@Benchmark
+	public double putGet() throws Throwable {
+		return putGet(env);
+	}
+
+	/** @return the sum of the values got */
+	@Benchmark
+	public double fresh() throws Throwable {
+		return putGet(Translator.environment());
+	}
+
+	private double putGet(Object env) throws Throwable {
+		double sum=0;
+		for (int slot=0; slot<size; slot++) {
+			Translator.put(env,slot,names[slot],slot);
+			sum+=Translator.get(env,0,slot,names[slot]);
+		}
+		return sum;
+	}
+
+}
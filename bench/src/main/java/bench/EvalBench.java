@@ -0,0 +1,51 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Node.eval() of a parsed program. Its output is printed, but nowhere.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class EvalBench {
+
+	/** "loop", to run a while loop, or "straight", to run straight-line code */
+	@Param({"loop", "straight"})
+	public String kind;
+
+	/** iterations of the loop, or statements of the straight-line code */
+	@Param({"100", "10000"})
+	public int size;
+
+	private Object prog;
+	private Object env;
+
+	@Setup
+	public void setup() throws Throwable {
+		prog=Translator.parse(Translator.parser(),Programs.make(kind,size));
+		env=Translator.environment();
+	}
+
+	/** @return the value of the program */
+	@Benchmark
+	public double eval() throws Throwable {
+		return Translator.eval(prog,env);
+	}
+
+}
@@ -0,0 +1,58 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parser.parse() of a whole program: scanning, parsing, and folding. And
+ * the same on every processor at once, against one Symbols, as --parallel
+ * parses: how much longer each parse takes than parse() alone shows how
+ * much the threads wait on one another.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class ParserBench {
+
+	/** statements in the program */
+	@Param({"100", "10000"})
+	public int size;
+
+	private String program;
+	private Object symbols;
+
+	@Setup
+	public void setup() throws Throwable {
+		program=Programs.straight(size);
+		symbols=Translator.symbols(Translator.parser());
+	}
+
+	/** @return the syntax tree */
+	@Benchmark
+	public Object parse() throws Throwable {
+		return Translator.parse(Translator.parser(),program);
+	}
+
+	/** @return the syntax tree */
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Object shared() throws Throwable {
+		return Translator.parse(Translator.parser(symbols),program);
+	}
+
+}
@@ -0,0 +1,63 @@
+package bench;
+
+/**
+ * Programs makes synthetic programs of a given size for the benchmarks.
+ * Remember that an assignment ends with its own ';', so statements after
+ * one are separated by a second.
+ */
+final class Programs {
+
+	private static final int VARS=8;
+
+	private Programs() {}
+
+	/**
+	 * @param kind "straight" or "loop"
+	 * @param size what the program is made of
+	 * @return the program
+	 */
+	static String make(String kind, int size) {
+		switch (kind) {
+		case "straight": return straight(size);
+		case "loop": return loop(size);
+		}
+		throw new IllegalArgumentException(kind);
+	}
+
+	/**
+	 * @param size number of statements
+	 * @return a program of straight-line arithmetic, with no loops
+	 */
+	static String straight(int size) {
+		StringBuilder sb=init();
+		for (int i=0; i<size; i++)
+			sb.append(";\nv").append(i%VARS)
+				.append(" = v").append((i+3)%VARS)
+				.append(" + ").append(i).append(" * (v").append((i+5)%VARS)
+				.append(" - 1.5) / 2;");
+		return sb.toString();
+	}
+
+	/**
+	 * @param size iterations of the loop
+	 * @return a program whose time is spent in a while loop
+	 */
+	static String loop(int size) {
+		StringBuilder sb=init();
+		sb.append(";\ni = 0;;\nwhile i < ").append(size).append(" do begin\n")
+			.append("\tv0 = v1 + i * 2 - v2;;\n")
+			.append("\tif v0 > v3 then v3 = v0 / 2; else v4 = v4 + 1;;\n")
+			.append("\ti = i + 1;\n")
+			.append("end");
+		return sb.toString();
+	}
+
+	/** @return assignments to the variables, less the final separator */
+	private static StringBuilder init() {
+		StringBuilder sb=new StringBuilder();
+		for (int v=0; v<VARS; v++)
+			sb.append(v>0 ? ";\n" : "").append('v').append(v).append(" = ").append(v+1).append(';');
+		return sb;
+	}
+
+}
@@ -0,0 +1,49 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scanning a whole program with Scanner.next(), without parsing it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class ScannerBench {
+
+	/** statements in the program */
+	@Param({"100", "10000"})
+	public int size;
+
+	private String program;
+
+	@Setup
+	public void setup() {
+		program=Programs.straight(size);
+	}
+
+	/** @return the number of tokens */
+	@Benchmark
+	public int scan() throws Throwable {
+		Object scanner=Translator.scanner(program);
+		int tokens=0;
+		while (Translator.next(scanner))
+			tokens++;
+		return tokens;
+	}
+
+}
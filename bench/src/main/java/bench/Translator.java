@@ -0,0 +1,143 @@
+package bench;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Translator is how the benchmarks call the translator. Its classes are in
+ * the default package, which no named package can import, and JMH will not
+ * generate code for benchmarks in the default package. So each operation
+ * is a constant MethodHandle, which the JIT inlines as it would a call.
+ * Translator objects are passed around as Objects.
+ */
+final class Translator {
+
+	private static final MethodHandles.Lookup LOOKUP=MethodHandles.publicLookup();
+
+	private static final MethodHandle SCANNER=constructor("Scanner",String.class);
+	private static final MethodHandle NEXT=method("Scanner","next",boolean.class);
+	private static final MethodHandle PARSER=constructor("Parser");
+	private static final MethodHandle PARSER_SYMBOLS=constructor("Parser",type("Symbols"));
+	private static final MethodHandle PARSE=method("Parser","parse",type("Node"),String.class);
+	private static final MethodHandle SYMBOLS=method("Parser","symbols",type("Symbols"));
+	private static final MethodHandle OUTPUT=constructor("Output",OutputStream.class);
+	private static final MethodHandle INPUT=constructor("Input",InputStream.class,boolean.class);
+	private static final MethodHandle ENVIRONMENT=constructor("Environment",type("Output"),type("Input"));
+	private static final MethodHandle EVAL=method("Node","eval",double.class,type("Environment"));
+	private static final MethodHandle CODE=method("Node","code",void.class,Appendable.class);
+	private static final MethodHandle CODE_FILE=constructor("Code",Writer.class);
+	private static final MethodHandle ADD=method("Code","add",void.class,type("Node"),type("Symbols"));
+	private static final MethodHandle CLOSE=method("Code","close",void.class);
+	private static final MethodHandle PUT=method("Environment","put",double.class,int.class,String.class,double.class);
+	private static final MethodHandle GET=method("Environment","get",double.class,int.class,int.class,String.class);
+
+	private Translator() {}
+
+	/** @return a Scanner over a program */
+	static Object scanner(String program) throws Throwable {
+		return (Object) SCANNER.invokeExact(program);
+	}
+
+	/** @return Scanner.next() */
+	static boolean next(Object scanner) throws Throwable {
+		return (boolean) NEXT.invokeExact(scanner);
+	}
+
+	/** @return a Parser with its own Symbols */
+	static Object parser() throws Throwable {
+		return (Object) PARSER.invokeExact();
+	}
+
+	/** @return a Parser that resolves variables against symbols */
+	static Object parser(Object symbols) throws Throwable {
+		return (Object) PARSER_SYMBOLS.invokeExact(symbols);
+	}
+
+	/** @return Parser.parse() of a program */
+	static Object parse(Object parser, String program) throws Throwable {
+		return (Object) PARSE.invokeExact(parser,program);
+	}
+
+	/** @return Parser.symbols() */
+	static Object symbols(Object parser) throws Throwable {
+		return (Object) SYMBOLS.invokeExact(parser);
+	}
+
+	/** @return an Environment that prints nowhere and has nothing to read */
+	static Object environment() throws Throwable {
+		Object out=(Object) OUTPUT.invokeExact(OutputStream.nullOutputStream());
+		Object in=(Object) INPUT.invokeExact(InputStream.nullInputStream(),false);
+		return (Object) ENVIRONMENT.invokeExact(out,in);
+	}
+
+	/** @return Node.eval() */
+	static double eval(Object node, Object env) throws Throwable {
+		return (double) EVAL.invokeExact(node,env);
+	}
+
+	/** Node.code() */
+	static void code(Object node, Appendable out) throws Throwable {
+		CODE.invokeExact(node,out);
+	}
+
+	/** Code.add() of each program, to a whole C file written to out */
+	static void code(Writer out, Object symbols, Object... progs) throws Throwable {
+		Object code=(Object) CODE_FILE.invokeExact(out);
+		for (Object prog: progs)
+			ADD.invokeExact(code,prog,symbols);
+		CLOSE.invokeExact(code);
+	}
+
+	/** @return Environment.put() */
+	static double put(Object env, int slot, String var, double val) throws Throwable {
+		return (double) PUT.invokeExact(env,slot,var,val);
+	}
+
+	/** @return Environment.get() */
+	static double get(Object env, int pos, int slot, String var) throws Throwable {
+		return (double) GET.invokeExact(env,pos,slot,var);
+	}
+
+	private static Class<?> type(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new NoClassDefFoundError(name);
+		}
+	}
+
+	/** @return the type, with the translator's classes made Object */
+	private static MethodType erase(MethodType type) {
+		for (int i=0; i<type.parameterCount(); i++)
+			if (type.parameterType(i).getPackageName().isEmpty())
+				type=type.changeParameterType(i,Object.class);
+		if (type.returnType().getPackageName().isEmpty())
+			type=type.changeReturnType(Object.class);
+		return type;
+	}
+
+	/** @return a constructor, with translator classes erased to Object */
+	private static MethodHandle constructor(String cls, Class<?>... params) {
+		try {
+			MethodHandle h=LOOKUP.findConstructor(type(cls),MethodType.methodType(void.class,params));
+			return h.asType(erase(h.type()));
+		} catch (ReflectiveOperationException e) {
+			throw new LinkageError(cls,e);
+		}
+	}
+
+	/** @return an instance method, with translator classes erased to Object */
+	private static MethodHandle method(String cls, String name, Class<?> result, Class<?>... params) {
+		try {
+			MethodHandle h=LOOKUP.findVirtual(type(cls),name,MethodType.methodType(result,params));
+			return h.asType(erase(h.type()));
+		} catch (ReflectiveOperationException e) {
+			throw new LinkageError(cls+"."+name,e);
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Gen generates valid programs of a given size, for scaling tests (see
+ * Scale). Each kind stresses one thing:
+ *
+ *   straight  straight-line assignments over a few variables
+ *   chain     one assignment whose expression is SIZE terms long
+ *   nest      if and while statements nested DEPTH deep, over and over
+ *   vars      assignments to SIZE different variables
+ *   comments  straight-line assignments, each after lines of comments
+ *
+ * SIZE counts statements, or terms for chain. Every program terminates
+ * and reads nothing. Programs are written as they are generated, so they
+ * can be far larger than memory.
+ *
+ * usage: java Gen KIND SIZE [SEED]
+ */
+public class Gen {
+
+	public static final String[] KINDS={"straight", "chain", "nest", "vars", "comments"};
+
+	private static final int VARS=16;	// variables of the kinds that do not make their own
+	private static final int DEPTH=64;	// nesting of nest
+
+	private Writer out;
+	private Random random;
+
+	private Gen(Writer out, long seed) {
+		this.out=out;
+		this.random=new Random(seed);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length<2) {
+			System.err.println("usage: java Gen KIND SIZE [SEED]");
+			System.exit(2);
+		}
+		Writer out=new BufferedWriter(new OutputStreamWriter(System.out),1<<16);
+		write(args[0],Long.parseLong(args[1]),args.length>2 ? Long.parseLong(args[2]) : 1,out);
+		out.flush();
+	}
+
+	/**
+	 * Writes a program.
+	 * @param kind one of KINDS
+	 * @param size its size
+	 * @param seed for the random choices, so a program can be made again
+	 * @param out where to write
+	 * @throws IOException if writing fails
+	 */
+	public static void write(String kind, long size, long seed, Writer out) throws IOException {
+		Gen gen=new Gen(out,seed);
+		switch (kind) {
+		case "straight": gen.straight(size,false); break;
+		case "chain": gen.chain(size); break;
+		case "nest": gen.nest(size); break;
+		case "vars": gen.vars(size); break;
+		case "comments": gen.straight(size,true); break;
+		default: throw new IllegalArgumentException("unknown kind: "+kind);
+		}
+		out.write('\n');
+	}
+
+	/** Writes v0 to v(VARS-1) = 1, 2, ..., then a separator. */
+	private void init() throws IOException {
+		for (int v=0; v<VARS; v++)
+			out.append('v').append(Integer.toString(v)).append(" = ").append(Integer.toString(v+1)).append(";;\n");
+	}
+
+	private String var() {
+		return "v"+random.nextInt(VARS);
+	}
+
+	private void straight(long size, boolean comments) throws IOException {
+		init();
+		for (long i=0; i<size; i++) {
+			if (comments) {
+				out.append("// statement ").append(Long.toString(i)).append(": nothing in this line is scanned as a token\n");
+				out.append("# nor in this one, v0 = v1 + 2; begin end while if\n");
+				out.append("//\n");
+			}
+			out.append(i>0 ? ";\n" : "").append(var()).append(" = ").append(var()).append(" + ")
+				.append(Integer.toString(random.nextInt(100))).append(" * (").append(var()).append(" - 1.5) / 2;");
+		}
+	}
+
+	private void chain(long size) throws IOException {
+		init();
+		out.append("x = v0");
+		for (long i=1; i<size; i++) {
+			out.append(i%4==0 ? " + " : i%4==1 ? " - " : i%4==2 ? " * " : " / ");
+			out.append(i%3==0 ? "1.5" : var());
+			if (i%64==0)
+				out.append('\n');
+		}
+		out.append(';');
+	}
+
+	/**
+	 * Writes groups of DEPTH nested statements, alternately if and while,
+	 * each with an assignment in it. A while runs once: its variable is
+	 * zeroed before it, and incremented as the last thing in it.
+	 */
+	private void nest(long size) throws IOException {
+		init();
+		for (long n=0; n<size; ) {
+			int depth=(int) Math.min(DEPTH,(size-n+1)/2);
+			out.append(n>0 ? ";\n" : "");
+			for (int d=0; d<depth; d++)
+				if (d%2==0)
+					out.append("if ").append(var()).append(" > 0 then begin ").append(var()).append(" = ").append(var()).append(" + 1;;\n");
+				else
+					out.append("w").append(Integer.toString(d)).append(" = 0;;\n")
+						.append("while w").append(Integer.toString(d)).append(" < 1 do begin ").append(var()).append(" = ").append(var()).append(" - 1;;\n");
+			out.append("x = 0;");
+			for (int d=depth-1; d>=0; d--)
+				if (d%2==0)
+					out.append("\nend");
+				else
+					out.append(";\nw").append(Integer.toString(d)).append(" = w").append(Integer.toString(d)).append(" + 1;\nend");
+			n+=2*depth;
+		}
+	}
+
+	private void vars(long size) throws IOException {
+		out.append("v0 = 1;");
+		for (long i=1; i<size; i++)
+			out.append(";\nv").append(Long.toString(i)).append(" = v").append(Long.toString((long) (random.nextDouble()*i))).append(" + 1;");
+	}
+
+}
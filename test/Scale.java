@@ -0,0 +1,218 @@
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Scale is a scaling regression test. For each kind of program Gen makes,
+ * at sizes from 10^3 up by tens, it measures the time to scan, parse, eval,
+ * and generate C for the program, the heap its tree keeps, and the sum of
+ * the peaks of the heap's pools over the whole run, which is at least its
+ * peak heap, since the pools need not peak at once. It fails if a time,
+ * or the tree's heap, grows more than 10^LIMIT times per tenfold size
+ * (default 10^1.5, about 32): linear growth is 10 times, quadratic 100.
+ * Growth is judged from the size two steps back, where there is one, since
+ * a single step can grow more than that where the tree outgrows a cache,
+ * though only the once.
+ *
+ * Small measurements are too noisy to judge, so a step is only judged if
+ * the larger measurement is at least 50ms or 16MB. Each phase is run a
+ * few times, and its best time taken, until the runs add up to a second.
+ * A step that looks superlinear is measured again, taking the best of
+ * both times, since the JIT compiling or the heap being collected in the
+ * middle of a phase can slow it down a lot, and fails only if it still does.
+ *
+ * Run it with a fixed heap (-Xms as big as -Xmx), as the scale script
+ * does, or the JVM growing its heap shows up as superlinear parse times.
+ * 10^7 needs a heap of several GB: java -Xms8g -Xmx8g ... Scale -max 10000000
+ *
+ * usage: java Scale [-max SIZE] [-limit LIMIT] [KIND ...]
+ */
+public class Scale {
+
+	private static final String[] PHASES={"scan", "parse", "eval", "code", "tree"};
+	private static final double[] FLOORS={50, 50, 50, 50, 16};	// ms, or MB for the tree
+
+	private static double limit=1.5;
+
+	public static void main(String[] args) throws Exception {
+		long max=100000;
+		List<String> kinds=new ArrayList<>();
+		for (int i=0; i<args.length; i++)
+			switch (args[i]) {
+			case "-max": max=Long.parseLong(args[++i]); break;
+			case "-limit": limit=Double.parseDouble(args[++i]); break;
+			default: kinds.add(args[i]);
+			}
+		if (kinds.isEmpty())
+			kinds.addAll(Arrays.asList(Gen.KINDS));
+
+		for (String kind: kinds)	// warm up, so the first sizes are not run cold
+			for (int i=0; i<3; i++)
+				measure(kind,i<2 ? 1000 : 10000);
+
+		System.out.printf("%-9s %9s %9s %9s %9s %9s %9s %9s%n",
+			"kind","size","scan ms","parse ms","eval ms","code ms","tree MB","pools MB");
+		boolean ok=true;
+		for (String kind: kinds) {
+			List<double[]> ms=new ArrayList<>();	// of each size so far
+			for (long size=1000; size<=max; size*=10) {
+				double[] m=measure(kind,size);
+				System.out.printf("%-9s %9d %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+					kind,size,m[0],m[1],m[2],m[3],m[4],m[5]);
+				int steps=Math.min(ms.size(),2);
+				if (steps>0) {
+					double[] before=ms.get(ms.size()-steps);
+					long from=size/(steps==2 ? 100 : 10);
+					if (!judge(kind,from,size,before,m,false)) {
+						best(before,measure(kind,from));
+						best(m,measure(kind,size));
+						ok&=judge(kind,from,size,before,m,true);
+					}
+				}
+				ms.add(m);
+			}
+		}
+		if (!ok) {
+			System.out.println("FAILED: superlinear scaling");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @param from the smaller size
+	 * @param size the larger
+	 * @param before measurements of the smaller size
+	 * @param m measurements of the larger
+	 * @param report whether to print what grew too much
+	 * @return whether growth from the smaller size to the larger is no
+	 *         worse than the limit, for each measurement large enough to judge
+	 */
+	private static boolean judge(String kind, long from, long size, double[] before, double[] m, boolean report) {
+		boolean ok=true;
+		double decades=Math.log10((double) size/from);
+		for (int i=0; i<PHASES.length; i++) {
+			if (m[i]<FLOORS[i])
+				continue;
+			double growth=Math.log10(m[i]/Math.max(before[i],FLOORS[i]/100))/decades;
+			if (growth>limit) {
+				if (report)
+					System.out.printf("%s %s grew 10^%.2f times per tenfold size from %d to %d%n",kind,PHASES[i],growth,from,size);
+				ok=false;
+			}
+		}
+		return ok;
+	}
+
+	/**
+	 * Generates a program, then measures its phases.
+	 * @return scan, parse, eval, and code ms, then tree MB and the sum of the pools' peak MB
+	 */
+	private static double[] measure(String kind, long size) throws Exception {
+		Path file=Files.createTempFile("scale",".p");
+		try {
+			try (Writer out=new BufferedWriter(Files.newBufferedWriter(file),1<<16)) {
+				Gen.write(kind,size,1,out);
+			}
+			double[] m=new double[6];
+			collect();
+			long base=used();
+			for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+				pool.resetPeakUsage();
+
+			m[0]=best(() -> {
+				try (FileChannel in=FileChannel.open(file)) {
+					Scanner scanner=new Scanner(in);
+					while (scanner.next())
+						;
+				}
+				return null;
+			});
+			Parser[] parser=new Parser[1];
+			Node[] prog=new Node[1];
+			m[1]=best(() -> {
+				prog[0]=null;
+				parser[0]=new Parser();
+				try (FileChannel in=FileChannel.open(file)) {
+					prog[0]=parser[0].parse(in);
+				}
+				return null;
+			});
+			collect();
+			long tree=used();
+			m[2]=best(() -> {
+				prog[0].eval(new Environment(new Output(OutputStream.nullOutputStream()),new Input(InputStream.nullInputStream(),false)));
+				return null;
+			});
+			m[3]=best(() -> {
+				Code code=new Code(Writer.nullWriter());
+				code.add(prog[0],parser[0].symbols());
+				code.close();
+				return null;
+			});
+			m[5]=(peak()-base)/1e6;
+			prog[0]=null;
+			parser[0]=null;
+			collect();
+			// the heap in use without the tree, before or after, whichever
+			// is less, since either can still hold garbage a collection missed
+			m[4]=Math.max(tree-Math.min(base,used()),0)/1e6;
+			return m;
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/** Makes m the best of two measurements of the same thing. */
+	private static void best(double[] m, double[] again) {
+		for (int i=0; i<m.length; i++)
+			m[i]=Math.min(m[i],again[i]);
+	}
+
+	/** @return the best time of a few runs, in ms */
+	private static double best(Callable<Void> phase) throws Exception {
+		double best=Double.MAX_VALUE, total=0;
+		for (int run=0; run<5 && total<1000; run++) {
+			long start=System.nanoTime();
+			phase.call();
+			double ms=(System.nanoTime()-start)/1e6;
+			best=Math.min(best,ms);
+			total+=ms;
+		}
+		return best;
+	}
+
+	private static void collect() {
+		for (int i=0; i<3; i++)
+			System.gc();
+	}
+
+	/** @return bytes of heap in use */
+	private static long used() {
+		Runtime rt=Runtime.getRuntime();
+		return rt.totalMemory()-rt.freeMemory();
+	}
+
+	/**
+	 * @return the sum of the most bytes in use in each heap pool since the
+	 *         pools were reset, an upper bound on the most in use at once
+	 */
+	private static long peak() {
+		long peak=0;
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType()==MemoryType.HEAP)
+				peak+=pool.getPeakUsage().getUsed();
+		return peak;
+	}
+
+}